@@ -0,0 +1,132 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.concurrent.locks.LockSupport;
+
+// Single-producer, single-consumer ring of bytes, without locks or
+// per-byte allocation. Only one thread may put() (and close()), and
+// only one (other) thread may take(). Any thread may wake().
+public class ByteRing {
+	private byte[] buf;
+	private int mask;
+	private volatile long head;	// next to take, written only by consumer
+	private volatile long tail;	// next to put, written only by producer
+	private volatile Thread taker;	// consumer, if waiting
+	private volatile Thread putter;	// producer, if waiting
+	private volatile boolean closed;	// producer is done
+	private volatile boolean woken;	// wake() not yet seen by consumer
+
+	// 'size' is rounded up to a power of 2.
+	public ByteRing(int size) {
+		int n = 1;
+		while (n < size) {
+			n <<= 1;
+		}
+		buf = new byte[n];
+		mask = n - 1;
+	}
+
+	public boolean isEmpty() {
+		return head == tail;
+	}
+
+	// Producer side, waits while full.
+	public void put(int b) {
+		long t = tail;
+		while (t - head >= buf.length) {
+			putter = Thread.currentThread();
+			if (t - head >= buf.length) {
+				LockSupport.park(this);
+			}
+			putter = null;
+		}
+		buf[(int)t & mask] = (byte)b;
+		tail = t + 1;
+		Thread w = taker;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+
+	// Ends the consumer's wait, or its next one if not waiting now.
+	// Unlike an interrupt, nothing else the consumer does is affected.
+	public void wake() {
+		woken = true;
+		Thread w = taker;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+
+	// Consumer side, forget a wake() meant for an earlier wait.
+	public void unwake() {
+		woken = false;
+	}
+
+	// Consumer side, waits up to 'ms' (0 = forever) for something
+	// to take. Returns false if still empty.
+	public boolean await(long ms) {
+		long end = System.nanoTime() + ms * 1000000L;
+		while (head == tail) {
+			long t = end - System.nanoTime();
+			if (ms > 0 && t <= 0) {
+				break;
+			}
+			if (woken) {
+				woken = false;
+				break;
+			}
+			taker = Thread.currentThread();
+			if (head == tail && !woken) {
+				if (ms > 0) {
+					LockSupport.parkNanos(this, t);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			taker = null;
+			if (Thread.interrupted()) {
+				break;
+			}
+		}
+		return head != tail;
+	}
+
+	// Producer side, no more to put(). Once empty, take() returns -1.
+	public void close() {
+		closed = true;
+		Thread w = taker;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+
+	// Consumer side, waits while empty.
+	// InterruptedException if woken (or interrupted) first.
+	public int take() throws InterruptedException {
+		long h = head;
+		while (h == tail) {
+			if (closed) {
+				return -1;
+			}
+			if (woken) {
+				woken = false;
+				throw new InterruptedException();
+			}
+			taker = Thread.currentThread();
+			if (h == tail && !closed && !woken) {
+				LockSupport.park(this);
+			}
+			taker = null;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		int b = buf[(int)h & mask] & 0xff;
+		head = h + 1;
+		Thread w = putter;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+		return b;
+	}
+}
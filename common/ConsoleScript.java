@@ -0,0 +1,213 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.io.*;
+import java.util.Vector;
+
+// Scripted console input, from a file of "expect" and "send" lines:
+//
+//	# comment
+//	expect A>
+//	send dir *.com\r
+//	expect "? "
+//	send y\r
+//
+// The text of each "send" is given to the program as soon as the text of
+// the preceding "expect" has appeared in console output, which must pass
+// through output(). Text may be quoted, to keep leading/trailing blanks,
+// and may use escapes \r, \n, \t, \", \\ and \xNN. After the last line,
+// input comes from the real console. A read while an "expect" is pending
+// either waits for it or, if the reader is the thread that produces the
+// output, gives up on the script (with a message).
+public class ConsoleScript extends InputStream {
+	private Vector<byte[]> text;
+	private Vector<Boolean> isExpect;
+	private Vector<Integer> lines;
+	private int step;
+	private byte[] want;	// pending "expect", or null
+	private int[] fail;	// KMP table for 'want'
+	private int seen;	// bytes of 'want' matched so far
+	private byte[] pend = new byte[0];	// input ready to be read
+	private int pos;
+	private InputStream in;	// real console
+	private boolean blocking;	// reader may wait for output
+
+	// 'blocking' is true if read() is called by some thread other than
+	// the one that produces output.
+	public ConsoleScript(File f, InputStream in, boolean blocking)
+			throws IOException {
+		this.in = in;
+		this.blocking = blocking;
+		text = new Vector<byte[]>();
+		isExpect = new Vector<Boolean>();
+		lines = new Vector<Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(f));
+		try {
+			String s;
+			int n = 0;
+			while ((s = br.readLine()) != null) {
+				++n;
+				String t = s.trim();
+				if (t.length() == 0 || t.startsWith("#")) {
+					continue;
+				}
+				String[] ss = t.split("\\s", 2);
+				String arg = (ss.length > 1 ? unquote(ss[1].trim()) : "");
+				if (ss[0].equals("expect")) {
+					if (arg.length() == 0) {
+						throw new IOException(String.format(
+							"%s line %d: empty expect", f.getName(), n));
+					}
+					isExpect.add(true);
+				} else if (ss[0].equals("send")) {
+					isExpect.add(false);
+				} else {
+					throw new IOException(String.format(
+						"%s line %d: not expect/send: %s", f.getName(), n, s));
+				}
+				text.add(unescape(arg).getBytes());
+				lines.add(n);
+			}
+		} finally {
+			br.close();
+		}
+		advance();
+	}
+
+	private static String unquote(String s) {
+		if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"")) {
+			return s.substring(1, s.length() - 1);
+		}
+		return s;
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < s.length(); ++x) {
+			char c = s.charAt(x);
+			if (c != '\\' || x + 1 >= s.length()) {
+				sb.append(c);
+				continue;
+			}
+			c = s.charAt(++x);
+			switch (c) {
+			case 'r': sb.append('\r'); break;
+			case 'n': sb.append('\n'); break;
+			case 't': sb.append('\t'); break;
+			case 'x':
+				if (x + 2 < s.length() &&
+						s.substring(x + 1, x + 3).matches("[0-9a-fA-F]{2}")) {
+					sb.append((char)Integer.parseInt(s.substring(x + 1, x + 3), 16));
+					x += 2;
+				} else {
+					sb.append(c);
+				}
+				break;
+			default: sb.append(c); break;
+			}
+		}
+		return sb.toString();
+	}
+
+	// Queue up "send"s, until the next "expect" (or end).
+	private void advance() {
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		bo.write(pend, pos, pend.length - pos);
+		want = null;
+		while (step < text.size()) {
+			if (isExpect.get(step)) {
+				setWant(text.get(step));
+				break;
+			}
+			byte[] b = text.get(step++);
+			bo.write(b, 0, b.length);
+		}
+		pend = bo.toByteArray();
+		pos = 0;
+	}
+
+	private void setWant(byte[] w) {
+		want = w;
+		seen = 0;
+		fail = new int[w.length];
+		int k = 0;
+		for (int x = 1; x < w.length; ++x) {
+			while (k > 0 && w[x] != w[k]) {
+				k = fail[k - 1];
+			}
+			if (w[x] == w[k]) {
+				++k;
+			}
+			fail[x] = k;
+		}
+	}
+
+	// A byte of console output.
+	public synchronized void output(int b) {
+		if (want == null) {
+			return;
+		}
+		byte c = (byte)b;
+		while (seen > 0 && want[seen] != c) {
+			seen = fail[seen - 1];
+		}
+		if (want[seen] == c) {
+			++seen;
+		}
+		if (seen == want.length) {
+			++step;
+			advance();
+			notifyAll();
+		}
+	}
+
+	// Console output stream 'os', with output() applied to it.
+	public OutputStream watch(OutputStream os) {
+		return new FilterOutputStream(os) {
+			public void write(int b) throws IOException {
+				output(b);
+				out.write(b);
+			}
+		};
+	}
+
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return (n <= 0 ? -1 : b[0] & 0xff);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		synchronized (this) {
+			while (pos >= pend.length && want != null && blocking) {
+				try {
+					wait();
+				} catch (InterruptedException ee) {
+					throw new InterruptedIOException();
+				}
+			}
+			if (pos < pend.length) {
+				int n = Math.min(len, pend.length - pos);
+				System.arraycopy(pend, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+			if (want != null) {
+				System.err.format("Script line %d: \"%s\" not seen, " +
+					"using console\n", lines.get(step), new String(want));
+				step = text.size();
+				want = null;
+			}
+		}
+		return in.read(b, off, len);
+	}
+
+	public synchronized int available() throws IOException {
+		if (pos < pend.length) {
+			return pend.length - pos;
+		}
+		if (want != null) {
+			return 0;
+		}
+		return in.available();
+	}
+}
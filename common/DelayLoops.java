@@ -0,0 +1,204 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import z80core.*;
+
+// Fast-forward of software delay loops, which only count a register
+// down to zero:
+//
+//	DJNZ $			(Z80)
+//	DEC r / JR NZ,$-1	(Z80)	DCR r / JNZ $-1		(8080)
+//	DEC rp / LD A,hi / OR lo / JR NZ	(Z80)
+//	DCX rp / MOV A,hi / ORA lo / JNZ	(8080)
+//
+// One iteration is run on the CPU, to learn its cost, then all but the
+// last iteration are skipped by setting the counter to 1 and adding the
+// cost of the skipped iterations. The last iteration is again left to
+// the CPU, so final registers and flags are exactly as if every
+// iteration had been run. T-states, instruction count and R (if the CPU
+// has one) are updated to match.
+public class DelayLoops {
+	// Results of the last execute()
+	public int ticks;	// T-states
+	public long count;	// instructions executed (or skipped)
+
+	private CPU cpu;
+	private byte[] mem;
+	private boolean[] traps;
+	private boolean z80;
+	private boolean[] start;	// opcodes that may start a loop
+
+	// 'traps' are addresses the caller must handle, loops may not
+	// contain them.
+	public DelayLoops(CPU cpu, byte[] mem, boolean[] traps, boolean z80) {
+		this.cpu = cpu;
+		this.mem = mem;
+		this.traps = traps;
+		this.z80 = z80;
+		start = new boolean[256];
+		for (int r = 0; r < 8; ++r) {
+			if (r != 6) {
+				start[(r << 3) | 0x05] = true;	// DEC r
+			}
+		}
+		start[0x0b] = true;	// DEC BC
+		start[0x1b] = true;	// DEC DE
+		start[0x2b] = true;	// DEC HL
+		if (z80) {
+			start[0x10] = true;	// DJNZ
+		}
+	}
+
+	private int getWORD(int adr) {
+		return (mem[adr & 0xffff] & 0xff) | ((mem[(adr + 1) & 0xffff] & 0xff) << 8);
+	}
+
+	private int getByte(int adr) {
+		return mem[adr & 0xffff] & 0xff;
+	}
+
+	// Is there a conditional branch, on NZ, from 'adr' back to 'pc'?
+	private int branchNZ(int adr, int pc) {
+		int op = getByte(adr);
+		if (z80 && op == 0x20 &&
+				((adr + 2 + (byte)getByte(adr + 1)) & 0xffff) == pc) {
+			return 2;
+		}
+		if (op == 0xc2 && getWORD(adr + 1) == pc) {
+			return 3;
+		}
+		return 0;
+	}
+
+	private int getReg(int r) {
+		switch (r) {
+		case 0: return cpu.getRegB();
+		case 1: return cpu.getRegC();
+		case 2: return cpu.getRegD();
+		case 3: return cpu.getRegE();
+		case 4: return cpu.getRegH();
+		case 5: return cpu.getRegL();
+		default: return cpu.getRegA();
+		}
+	}
+
+	private void setReg(int r, int v) {
+		switch (r) {
+		case 0: cpu.setRegB(v); break;
+		case 1: cpu.setRegC(v); break;
+		case 2: cpu.setRegD(v); break;
+		case 3: cpu.setRegE(v); break;
+		case 4: cpu.setRegH(v); break;
+		case 5: cpu.setRegL(v); break;
+		default: cpu.setRegA(v); break;
+		}
+	}
+
+	private int getPair(int rp) {
+		switch (rp) {
+		case 0: return cpu.getRegBC();
+		case 1: return cpu.getRegDE();
+		default: return cpu.getRegHL();
+		}
+	}
+
+	private void setPair(int rp, int v) {
+		switch (rp) {
+		case 0: cpu.setRegBC(v); break;
+		case 1: cpu.setRegDE(v); break;
+		default: cpu.setRegHL(v); break;
+		}
+	}
+
+	private void setRegR(int r) {
+		if (cpu instanceof Z80) {
+			((Z80)cpu).setRegR(r);
+		} else if (cpu instanceof Z180) {
+			((Z180)cpu).setRegR(r);
+		}
+	}
+
+	// Skip delay loop at PC, returns false if not a delay loop
+	// (caller must use execute()).
+	public boolean execute(int pc) {
+		if (!start[mem[pc] & 0xff]) {
+			return false;
+		}
+		if (cpu.isIE() && cpu.isINTLine()) {
+			return false;	// let CPU take interrupt first
+		}
+		int op = mem[pc] & 0xff;
+		int len;
+		int reg = -1;	// 8-bit counter
+		int rp = -1;	// 16-bit counter
+		if (op == 0x10) {
+			if (getByte(pc + 1) != 0xfe) {
+				return false;
+			}
+			reg = 0;
+			len = 2;
+		} else if ((op & 0x07) == 0x05) {
+			len = branchNZ(pc + 1, pc);
+			if (len == 0) {
+				return false;
+			}
+			reg = (op >> 3) & 7;
+			++len;
+		} else {
+			rp = (op >> 4) & 3;
+			int hi = rp * 2;
+			int lo = hi + 1;
+			int o1 = getByte(pc + 1);
+			int o2 = getByte(pc + 2);
+			if (!(o1 == (0x78 | hi) && o2 == (0xb0 | lo)) &&
+					!(o1 == (0x78 | lo) && o2 == (0xb0 | hi))) {
+				return false;
+			}
+			len = branchNZ(pc + 3, pc);
+			if (len == 0) {
+				return false;
+			}
+			len += 3;
+		}
+		for (int x = 1; x < len; ++x) {
+			if (traps[(pc + x) & 0xffff]) {
+				return false;
+			}
+		}
+		int n;
+		if (reg >= 0) {
+			n = getReg(reg);
+			if (n == 0) n = 0x100;
+		} else {
+			n = getPair(rp);
+			if (n == 0) n = 0x10000;
+		}
+		if (n < 4) {
+			return false;	// not worth it
+		}
+		// Run one iteration, to measure it.
+		int r0 = cpu.getRegR();
+		ticks = 0;
+		count = 0;
+		do {
+			int t = cpu.execute();
+			ticks += (t < 0 ? -t : t);
+			++count;
+		} while (cpu.getRegPC() != pc && count < 4);
+		if (cpu.getRegPC() != pc) {
+			return true;	// interrupted, or not what we thought
+		}
+		int rd = (cpu.getRegR() - r0) & 0x7f;
+		// Skip all but one of the remaining iterations.
+		long k = n - 2;
+		if (reg >= 0) {
+			setReg(reg, 1);
+		} else {
+			setPair(rp, 1);
+		}
+		int r = cpu.getRegR();
+		setRegR((r & 0x80) | ((int)(r + k * rd) & 0x7f));
+		count += k * count;
+		ticks += (int)(k * ticks);
+		return true;
+	}
+}
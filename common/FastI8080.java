@@ -0,0 +1,487 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import z80core.*;
+
+// An 8080 interpreter for speed, not for debugging: memory is accessed
+// directly from the machine's byte array (no Computer.peek8/poke8),
+// opcodes are dispatched by a single switch (Java "tableswitch"), and
+// flags come from pre-computed tables. I/O and interrupt responses still
+// go through the Computer. There are no breakpoints, and the z80debug
+// tracers cannot be used (they require z80core.I8080).
+//
+// Writes do not go through poke8(), so memory writes cannot be watched.
+public class FastI8080 implements CPU {
+	static final int CF = 0x01;
+	static final int PF = 0x04;
+	static final int AF = 0x10;	// auxiliary (half) carry
+	static final int ZF = 0x40;
+	static final int SF = 0x80;
+	static final int F1 = 0x02;	// always 1 on 8080
+
+	// Sign, Zero, Parity flags for results 0-255.
+	static final int[] szp = new int[256];
+	// Cycle counts, not including extra for taken Ccc/Rcc.
+	static final int[] cycles = {
+		4, 10, 7, 5, 5, 5, 7, 4, 4, 10, 7, 5, 5, 5, 7, 4,
+		4, 10, 7, 5, 5, 5, 7, 4, 4, 10, 7, 5, 5, 5, 7, 4,
+		4, 10, 16, 5, 5, 5, 7, 4, 4, 10, 16, 5, 5, 5, 7, 4,
+		4, 10, 13, 5, 10, 10, 10, 4, 4, 10, 13, 5, 5, 5, 7, 4,
+		5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+		5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+		5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+		7, 7, 7, 7, 7, 7, 7, 7, 5, 5, 5, 5, 5, 5, 7, 5,
+		4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+		4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+		4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+		4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+		5, 10, 10, 10, 11, 11, 7, 11, 5, 10, 10, 10, 11, 17, 7, 11,
+		5, 10, 10, 10, 11, 11, 7, 11, 5, 10, 10, 10, 11, 17, 7, 11,
+		5, 10, 10, 18, 11, 11, 7, 11, 5, 5, 10, 4, 11, 17, 7, 11,
+		5, 10, 10, 4, 11, 11, 7, 11, 5, 5, 10, 4, 11, 17, 7, 11,
+	};
+	static {
+		for (int x = 0; x < 256; ++x) {
+			int f = (x & SF);
+			if (x == 0) {
+				f |= ZF;
+			}
+			if ((Integer.bitCount(x) & 1) == 0) {
+				f |= PF;
+			}
+			szp[x] = f;
+		}
+	}
+
+	protected Computer comp;
+	protected byte[] mem;
+	private int regA, regB, regC, regD, regE, regH, regL;
+	private int regF;	// all flags except CF
+	private boolean carry;
+	private int regSP, regPC;
+	private boolean ffIE;
+	private boolean pendingEI;
+	private boolean halted;
+	private boolean intLine;
+	private boolean intrFetch;
+
+	public FastI8080(Computer comp, byte[] mem) {
+		this.comp = comp;
+		this.mem = mem;
+		reset();
+	}
+
+	public void reset() {
+		regPC = 0;
+		regSP = 0xffff;
+		regA = regB = regC = regD = regE = regH = regL = 0xff;
+		regF = F1;
+		carry = false;
+		ffIE = false;
+		pendingEI = false;
+		halted = false;
+		intLine = false;
+	}
+
+	//////// Memory and I/O ////////
+	// Overridden only for conformance checking.
+	protected int load(int adr) {
+		return mem[adr] & 0xff;
+	}
+	protected void store(int adr, int val) {
+		mem[adr] = (byte)val;
+	}
+
+	private int fetch8() {
+		if (intrFetch) {
+			return comp.intrResp(Z80State.IntMode.IM0) & 0xff;
+		}
+		int v = load(regPC);
+		regPC = (regPC + 1) & 0xffff;
+		return v;
+	}
+	private int fetch16() {
+		int v = fetch8();
+		return v | (fetch8() << 8);
+	}
+	private int load16(int adr) {
+		return load(adr) | (load((adr + 1) & 0xffff) << 8);
+	}
+	private void store16(int adr, int val) {
+		store(adr, val & 0xff);
+		store((adr + 1) & 0xffff, (val >> 8) & 0xff);
+	}
+	private void push(int val) {
+		regSP = (regSP - 1) & 0xffff;
+		store(regSP, (val >> 8) & 0xff);
+		regSP = (regSP - 1) & 0xffff;
+		store(regSP, val & 0xff);
+	}
+	private int pop() {
+		int v = load(regSP);
+		regSP = (regSP + 1) & 0xffff;
+		v |= load(regSP) << 8;
+		regSP = (regSP + 1) & 0xffff;
+		return v;
+	}
+
+	//////// ALU ////////
+	private void add(int v, int c) {
+		int r = regA + v + c;
+		regF = szp[r & 0xff] | ((regA ^ v ^ r) & AF) | F1;
+		carry = (r > 0xff);
+		regA = r & 0xff;
+	}
+	// 8080 subtract is add of complement, AC is set accordingly.
+	private int sub(int v, int c) {
+		int r = regA - v - c;
+		regF = szp[r & 0xff] | (~(regA ^ v ^ r) & AF) | F1;
+		carry = (r < 0);
+		return r & 0xff;
+	}
+	private void ana(int v) {
+		int r = regA & v;
+		regF = szp[r] | (((regA | v) << 1) & AF) | F1;
+		carry = false;
+		regA = r;
+	}
+	private void xra(int v) {
+		regA ^= v;
+		regF = szp[regA] | F1;
+		carry = false;
+	}
+	private void ora(int v) {
+		regA |= v;
+		regF = szp[regA] | F1;
+		carry = false;
+	}
+	private void alu(int op, int v) {
+		switch (op) {
+		case 0: add(v, 0); break;
+		case 1: add(v, carry ? 1 : 0); break;
+		case 2: regA = sub(v, 0); break;
+		case 3: regA = sub(v, carry ? 1 : 0); break;
+		case 4: ana(v); break;
+		case 5: xra(v); break;
+		case 6: ora(v); break;
+		case 7: sub(v, 0); break;	// CMP
+		}
+	}
+	private int inr(int v) {
+		v = (v + 1) & 0xff;
+		regF = szp[v] | ((v & 0x0f) == 0 ? AF : 0) | F1;
+		return v;
+	}
+	private int dcr(int v) {
+		v = (v - 1) & 0xff;
+		regF = szp[v] | ((v & 0x0f) != 0x0f ? AF : 0) | F1;
+		return v;
+	}
+	private void dad(int v) {
+		int r = getRegHL() + v;
+		carry = (r > 0xffff);
+		setRegHL(r & 0xffff);
+	}
+	private void daa() {
+		int a = regA;
+		int corr = 0;
+		boolean cy = carry;
+		if ((regF & AF) != 0 || (a & 0x0f) > 9) {
+			corr |= 0x06;
+		}
+		if (cy || a > 0x99) {
+			corr |= 0x60;
+			cy = true;
+		}
+		int r = (a + corr) & 0xff;
+		regF = szp[r] | ((a ^ corr ^ r) & AF) | F1;
+		carry = cy;
+		regA = r;
+	}
+
+	// Register by 3-bit code, 6 = (HL).
+	private int getReg(int r) {
+		switch (r) {
+		case 0: return regB;
+		case 1: return regC;
+		case 2: return regD;
+		case 3: return regE;
+		case 4: return regH;
+		case 5: return regL;
+		case 6: return load(getRegHL());
+		default: return regA;
+		}
+	}
+	private void setReg(int r, int v) {
+		switch (r) {
+		case 0: regB = v; break;
+		case 1: regC = v; break;
+		case 2: regD = v; break;
+		case 3: regE = v; break;
+		case 4: regH = v; break;
+		case 5: regL = v; break;
+		case 6: store(getRegHL(), v); break;
+		default: regA = v; break;
+		}
+	}
+	// Condition by 3-bit code: NZ, Z, NC, C, PO, PE, P, M
+	private boolean cond(int cc) {
+		switch (cc) {
+		case 0: return (regF & ZF) == 0;
+		case 1: return (regF & ZF) != 0;
+		case 2: return !carry;
+		case 3: return carry;
+		case 4: return (regF & PF) == 0;
+		case 5: return (regF & PF) != 0;
+		case 6: return (regF & SF) == 0;
+		default: return (regF & SF) != 0;
+		}
+	}
+
+	//////// Execution ////////
+	public int execute() {
+		if (intLine && ffIE && !pendingEI) {
+			if (halted) {
+				halted = false;
+				regPC = (regPC + 1) & 0xffff;
+			}
+			ffIE = false;
+			intrFetch = true;
+		}
+		int op = fetch8();
+		int ticks = cycles[op];
+		int v;
+		switch (op) {
+		case 0x00: case 0x08: case 0x10: case 0x18:
+		case 0x20: case 0x28: case 0x30: case 0x38:
+			break;	// NOP
+		case 0x01: setRegBC(fetch16()); break;
+		case 0x11: setRegDE(fetch16()); break;
+		case 0x21: setRegHL(fetch16()); break;
+		case 0x31: regSP = fetch16(); break;
+		case 0x02: store(getRegBC(), regA); break;
+		case 0x12: store(getRegDE(), regA); break;
+		case 0x0a: regA = load(getRegBC()); break;
+		case 0x1a: regA = load(getRegDE()); break;
+		case 0x22: store16(fetch16(), getRegHL()); break;
+		case 0x2a: setRegHL(load16(fetch16())); break;
+		case 0x32: store(fetch16(), regA); break;
+		case 0x3a: regA = load(fetch16()); break;
+		case 0x03: setRegBC((getRegBC() + 1) & 0xffff); break;
+		case 0x13: setRegDE((getRegDE() + 1) & 0xffff); break;
+		case 0x23: setRegHL((getRegHL() + 1) & 0xffff); break;
+		case 0x33: regSP = (regSP + 1) & 0xffff; break;
+		case 0x0b: setRegBC((getRegBC() - 1) & 0xffff); break;
+		case 0x1b: setRegDE((getRegDE() - 1) & 0xffff); break;
+		case 0x2b: setRegHL((getRegHL() - 1) & 0xffff); break;
+		case 0x3b: regSP = (regSP - 1) & 0xffff; break;
+		case 0x09: dad(getRegBC()); break;
+		case 0x19: dad(getRegDE()); break;
+		case 0x29: dad(getRegHL()); break;
+		case 0x39: dad(regSP); break;
+		case 0x04: regB = inr(regB); break;
+		case 0x0c: regC = inr(regC); break;
+		case 0x14: regD = inr(regD); break;
+		case 0x1c: regE = inr(regE); break;
+		case 0x24: regH = inr(regH); break;
+		case 0x2c: regL = inr(regL); break;
+		case 0x34: v = getRegHL(); store(v, inr(load(v))); break;
+		case 0x3c: regA = inr(regA); break;
+		case 0x05: regB = dcr(regB); break;
+		case 0x0d: regC = dcr(regC); break;
+		case 0x15: regD = dcr(regD); break;
+		case 0x1d: regE = dcr(regE); break;
+		case 0x25: regH = dcr(regH); break;
+		case 0x2d: regL = dcr(regL); break;
+		case 0x35: v = getRegHL(); store(v, dcr(load(v))); break;
+		case 0x3d: regA = dcr(regA); break;
+		case 0x06: regB = fetch8(); break;
+		case 0x0e: regC = fetch8(); break;
+		case 0x16: regD = fetch8(); break;
+		case 0x1e: regE = fetch8(); break;
+		case 0x26: regH = fetch8(); break;
+		case 0x2e: regL = fetch8(); break;
+		case 0x36: v = fetch8(); store(getRegHL(), v); break;
+		case 0x3e: regA = fetch8(); break;
+		case 0x07:	// RLC
+			carry = (regA & 0x80) != 0;
+			regA = ((regA << 1) | (regA >> 7)) & 0xff;
+			break;
+		case 0x0f:	// RRC
+			carry = (regA & 0x01) != 0;
+			regA = ((regA >> 1) | (regA << 7)) & 0xff;
+			break;
+		case 0x17:	// RAL
+			v = carry ? 1 : 0;
+			carry = (regA & 0x80) != 0;
+			regA = ((regA << 1) | v) & 0xff;
+			break;
+		case 0x1f:	// RAR
+			v = carry ? 0x80 : 0;
+			carry = (regA & 0x01) != 0;
+			regA = (regA >> 1) | v;
+			break;
+		case 0x27: daa(); break;
+		case 0x2f: regA ^= 0xff; break;	// CMA
+		case 0x37: carry = true; break;	// STC
+		case 0x3f: carry = !carry; break;	// CMC
+		case 0x76:	// HLT
+			regPC = (regPC - 1) & 0xffff;
+			halted = true;
+			break;
+		case 0xc3: case 0xcb:	// JMP
+			regPC = fetch16();
+			break;
+		case 0xc2: case 0xca: case 0xd2: case 0xda:
+		case 0xe2: case 0xea: case 0xf2: case 0xfa:
+			v = fetch16();
+			if (cond((op >> 3) & 7)) {
+				regPC = v;
+			}
+			break;
+		case 0xcd: case 0xdd: case 0xed: case 0xfd:	// CALL
+			v = fetch16();
+			push(regPC);
+			regPC = v;
+			break;
+		case 0xc4: case 0xcc: case 0xd4: case 0xdc:
+		case 0xe4: case 0xec: case 0xf4: case 0xfc:
+			v = fetch16();
+			if (cond((op >> 3) & 7)) {
+				push(regPC);
+				regPC = v;
+				ticks += 6;
+			}
+			break;
+		case 0xc9: case 0xd9:	// RET
+			regPC = pop();
+			break;
+		case 0xc0: case 0xc8: case 0xd0: case 0xd8:
+		case 0xe0: case 0xe8: case 0xf0: case 0xf8:
+			if (cond((op >> 3) & 7)) {
+				regPC = pop();
+				ticks += 6;
+			}
+			break;
+		case 0xc7: case 0xcf: case 0xd7: case 0xdf:
+		case 0xe7: case 0xef: case 0xf7: case 0xff:	// RST
+			push(regPC);
+			regPC = op & 0x38;
+			break;
+		case 0xc1: setRegBC(pop()); break;
+		case 0xd1: setRegDE(pop()); break;
+		case 0xe1: setRegHL(pop()); break;
+		case 0xf1: setRegAF(pop()); break;
+		case 0xc5: push(getRegBC()); break;
+		case 0xd5: push(getRegDE()); break;
+		case 0xe5: push(getRegHL()); break;
+		case 0xf5: push(getRegAF()); break;
+		case 0xc6: case 0xce: case 0xd6: case 0xde:
+		case 0xe6: case 0xee: case 0xf6: case 0xfe:
+			alu((op >> 3) & 7, fetch8());
+			break;
+		case 0xd3: comp.outPort(fetch8(), regA); break;
+		case 0xdb: regA = comp.inPort(fetch8()) & 0xff; break;
+		case 0xe3:	// XTHL
+			v = load16(regSP);
+			store16(regSP, getRegHL());
+			setRegHL(v);
+			break;
+		case 0xe9: regPC = getRegHL(); break;	// PCHL
+		case 0xeb:	// XCHG
+			v = regD; regD = regH; regH = v;
+			v = regE; regE = regL; regL = v;
+			break;
+		case 0xf3: ffIE = false; break;	// DI
+		case 0xfb: ffIE = true; pendingEI = true; break;	// EI
+		case 0xf9: regSP = getRegHL(); break;	// SPHL
+		default:
+			if (op < 0x80) {	// MOV
+				setReg((op >> 3) & 7, getReg(op & 7));
+			} else {	// ALU
+				alu((op >> 3) & 7, getReg(op & 7));
+			}
+			break;
+		}
+		if (pendingEI && op != 0xfb) {
+			pendingEI = false;
+		}
+		if (intrFetch) {
+			intrFetch = false;
+			return -ticks;	// same convention as z80core
+		}
+		return ticks;
+	}
+
+	//////// CPU interface ////////
+	public int getRegA() { return regA; }
+	public int getRegB() { return regB; }
+	public int getRegC() { return regC; }
+	public int getRegD() { return regD; }
+	public int getRegE() { return regE; }
+	public int getRegH() { return regH; }
+	public int getRegL() { return regL; }
+	public int getFlags() { return regF | (carry ? CF : 0); }
+	public int getRegAF() { return (regA << 8) | getFlags(); }
+	public int getRegBC() { return (regB << 8) | regC; }
+	public int getRegDE() { return (regD << 8) | regE; }
+	public int getRegHL() { return (regH << 8) | regL; }
+	public int getRegPC() { return regPC; }
+	public int getRegSP() { return regSP; }
+	public void setRegA(int v) { regA = v & 0xff; }
+	public void setRegB(int v) { regB = v & 0xff; }
+	public void setRegC(int v) { regC = v & 0xff; }
+	public void setRegD(int v) { regD = v & 0xff; }
+	public void setRegE(int v) { regE = v & 0xff; }
+	public void setRegH(int v) { regH = v & 0xff; }
+	public void setRegL(int v) { regL = v & 0xff; }
+	public void setFlags(int v) {
+		regF = (v & (SF | ZF | AF | PF)) | F1;
+		carry = (v & CF) != 0;
+	}
+	public void setRegAF(int v) { regA = (v >> 8) & 0xff; setFlags(v); }
+	public void setRegBC(int v) { regB = (v >> 8) & 0xff; regC = v & 0xff; }
+	public void setRegDE(int v) { regD = (v >> 8) & 0xff; regE = v & 0xff; }
+	public void setRegHL(int v) { regH = (v >> 8) & 0xff; regL = v & 0xff; }
+	public void setRegPC(int v) { regPC = v & 0xffff; }
+	public void setRegSP(int v) { regSP = v & 0xffff; }
+	// No Z80 registers
+	public int getRegAFx() { return 0; }
+	public int getRegBCx() { return 0; }
+	public int getRegDEx() { return 0; }
+	public int getRegHLx() { return 0; }
+	public int getRegAx() { return 0; }
+	public int getRegFx() { return 0; }
+	public int getRegBx() { return 0; }
+	public int getRegCx() { return 0; }
+	public int getRegDx() { return 0; }
+	public int getRegEx() { return 0; }
+	public int getRegHx() { return 0; }
+	public int getRegLx() { return 0; }
+	public int getRegIX() { return 0; }
+	public int getRegIY() { return 0; }
+	public int getRegI() { return 0; }
+	public int getRegR() { return 0; }
+	public void setCarryFlag(boolean c) { carry = c; }
+	public boolean isCarryFlag() { return carry; }
+	public boolean isIE() { return ffIE; }
+	public boolean isINTLine() { return intLine; }
+	public void setINTLine(boolean l) { intLine = l; }
+	public boolean isHalted() { return halted; }
+	public boolean hasNMI() { return false; }
+	public boolean isNMI() { return false; }
+	public void triggerNMI() { }
+	public boolean hasINT1() { return false; }
+	public boolean isINT1Line() { return false; }
+	public void setINT1Line(boolean l) { }
+	public boolean hasINT2() { return false; }
+	public boolean isINT2Line() { return false; }
+	public void setINT2Line(boolean l) { }
+	public String specialCycle() { return ""; }
+	public void resetBreakpoints() { }
+
+	public String dumpDebug() {
+		return String.format("AF=%04x BC=%04x DE=%04x HL=%04x SP=%04x PC=%04x%s%s\n",
+			getRegAF(), getRegBC(), getRegDE(), getRegHL(),
+			regSP, regPC, ffIE ? " IE" : "", halted ? " HALT" : "");
+	}
+}
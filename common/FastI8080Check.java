@@ -0,0 +1,200 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.Arrays;
+import java.util.Vector;
+import z80core.*;
+
+// Conformance mode for FastI8080: every instruction is first run on
+// z80core.I8080 (the reference), whose memory writes are then undone,
+// and then run on FastI8080 with the same I/O and interrupt responses
+// replayed. Registers, flags and memory writes must agree, differences
+// are reported on stderr. Cycle counts are not compared, the cores
+// count differently. Very slow, only for testing.
+public class FastI8080Check extends FastI8080 {
+	static final int MAX_ERRS = 20;
+
+	private I8080 ref;
+	private Computer real;
+	private Vector<int[]> refWr;	// {adr, old, new}
+	private Vector<int[]> fastWr;	// {adr, new}
+	private Vector<Integer> io;	// inPort/intrResp values, in order
+	private int ioIdx;
+	private long errs;
+	private int pc0;	// PC of instruction being checked
+
+	// Reference side: real memory and devices, writes logged for undo.
+	class Recorder implements Computer {
+		public int peek8(int address) {
+			return mem[address & 0xffff] & 0xff;
+		}
+		public void poke8(int address, int value) {
+			address &= 0xffff;
+			refWr.add(new int[]{ address, mem[address] & 0xff, value & 0xff });
+			mem[address] = (byte)value;
+		}
+		public int intrResp(Z80State.IntMode mode) {
+			int v = real.intrResp(mode);
+			io.add(v);
+			return v;
+		}
+		public void retIntr(int opCode) { real.retIntr(opCode); }
+		public int inPort(int port) {
+			int v = real.inPort(port);
+			io.add(v);
+			return v;
+		}
+		public void outPort(int port, int value) { real.outPort(port, value); }
+		public void changeSpeed(int a, int b) { real.changeSpeed(a, b); }
+		public void contendedStates(int address, int tstates) { }
+		public long getTStates() { return real.getTStates(); }
+		public void breakpoint() { }
+		public void execDone() { }
+	}
+
+	// FastI8080 side: devices were already accessed, replay results.
+	class Replayer implements Computer {
+		public int peek8(int address) { return mem[address & 0xffff] & 0xff; }
+		public void poke8(int address, int value) { }
+		public int intrResp(Z80State.IntMode mode) { return replay(); }
+		public void retIntr(int opCode) { }
+		public int inPort(int port) { return replay(); }
+		public void outPort(int port, int value) { }
+		public void changeSpeed(int a, int b) { }
+		public void contendedStates(int address, int tstates) { }
+		public long getTStates() { return real.getTStates(); }
+		public void breakpoint() { }
+		public void execDone() { }
+	}
+
+	public FastI8080Check(Computer comp, byte[] mem) {
+		super(comp, mem);
+		real = comp;
+		this.comp = new Replayer();
+		refWr = new Vector<int[]>();
+		fastWr = new Vector<int[]>();
+		io = new Vector<Integer>();
+		ref = new I8080(new Recorder());
+		System.err.format("FastI8080 conformance checking against %s\n",
+			ref.getClass().getName());
+	}
+
+	private int replay() {
+		if (ioIdx >= io.size()) {
+			mismatch("extra I/O or interrupt response", "", "");
+			return 0xff;
+		}
+		return io.get(ioIdx++);
+	}
+
+	protected void store(int adr, int val) {
+		fastWr.add(new int[]{ adr, val });
+		super.store(adr, val);
+	}
+
+	private int[] regs(CPU cpu) {
+		return new int[]{ cpu.getRegAF(), cpu.getRegBC(), cpu.getRegDE(),
+			cpu.getRegHL(), cpu.getRegSP(), cpu.getRegPC(),
+			cpu.isIE() ? 1 : 0 };
+	}
+
+	private String regStr(int[] r) {
+		return String.format("AF=%04x BC=%04x DE=%04x HL=%04x SP=%04x PC=%04x%s",
+			r[0], r[1], r[2], r[3], r[4], r[5], r[6] != 0 ? " IE" : "");
+	}
+
+	private void mismatch(String what, String r, String f) {
+		++errs;
+		if (errs > MAX_ERRS) {
+			return;
+		}
+		System.err.format("FastI8080 mismatch (%s) at %04x\n  ref:  %s\n  fast: %s\n",
+			what, pc0, r, f);
+		if (errs == MAX_ERRS) {
+			System.err.format("FastI8080: too many mismatches, no more reported\n");
+		}
+	}
+
+	public int execute() {
+		pc0 = getRegPC();
+		int[] before = regs(this);
+		boolean il = isINTLine();
+		ref.setRegAF(getRegAF());
+		ref.setRegBC(getRegBC());
+		ref.setRegDE(getRegDE());
+		ref.setRegHL(getRegHL());
+		ref.setRegSP(getRegSP());
+		ref.setRegPC(getRegPC());
+		ref.setINTLine(il);
+		refWr.clear();
+		fastWr.clear();
+		io.clear();
+		ioIdx = 0;
+		ref.execute();
+		// device side effects (e.g. INT line cleared by intrResp) happen once.
+		boolean il2 = ref.isINTLine();
+		for (int x = refWr.size() - 1; x >= 0; --x) {
+			int[] w = refWr.get(x);
+			mem[w[0]] = (byte)w[1];
+		}
+		super.setINTLine(il);
+		int ticks = super.execute();
+		super.setINTLine(il2);
+		int[] r = regs(ref);
+		int[] f = regs(this);
+		if (!Arrays.equals(r, f)) {
+			mismatch("registers", regStr(r),
+				regStr(f) + "\n  was:  " + regStr(before));
+		}
+		if (ioIdx != io.size()) {
+			mismatch("missing I/O or interrupt response", "", "");
+		}
+		// compare final memory contents of all locations written
+		boolean ok = true;
+		for (int[] w : refWr) {
+			if ((mem[w[0]] & 0xff) != w[2]) {
+				ok = false;
+			}
+		}
+		for (int[] w : fastWr) {
+			boolean found = false;
+			for (int[] rw : refWr) {
+				if (rw[0] == w[0]) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				ok = false;
+			}
+		}
+		if (!ok) {
+			mismatch("memory writes", wrList(refWr, 2), wrList(fastWr, 1));
+		}
+		return ticks;
+	}
+
+	private String wrList(Vector<int[]> wr, int v) {
+		String s = "";
+		for (int[] w : wr) {
+			s += String.format(" %04x=%02x", w[0], w[v]);
+		}
+		return s;
+	}
+
+	public void setINTLine(boolean l) {
+		super.setINTLine(l);
+		ref.setINTLine(l);
+	}
+
+	public void reset() {
+		super.reset();
+		if (ref != null) {
+			ref.reset();
+		}
+	}
+
+	public String dumpDebug() {
+		return super.dumpDebug() +
+			String.format("%d conformance mismatches\n", errs);
+	}
+}
@@ -0,0 +1,45 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.Vector;
+import java.lang.management.ManagementFactory;
+
+// Time spent in each startup phase, up to the first guest instruction.
+// Reported on stderr.
+public class StartupTimer {
+	private Vector<String> names;
+	private Vector<Long> times;	// nanoseconds
+	private long last;
+
+	// 'jvm' adds the time from JVM start, only meaningful from main().
+	public StartupTimer(boolean jvm) {
+		names = new Vector<String>();
+		times = new Vector<Long>();
+		if (jvm) {
+			long ms = System.currentTimeMillis() -
+				ManagementFactory.getRuntimeMXBean().getStartTime();
+			names.add("JVM to main");
+			times.add(ms * 1000000L);
+		}
+		last = System.nanoTime();
+	}
+
+	// End of phase 'name', which began at the end of the previous one.
+	public void mark(String name) {
+		long t = System.nanoTime();
+		names.add(name);
+		times.add(t - last);
+		last = t;
+	}
+
+	public void report() {
+		long tot = 0;
+		System.err.format("Startup times (ms):\n");
+		for (int x = 0; x < names.size(); ++x) {
+			System.err.format("  %-16s %8.3f\n", names.get(x),
+				times.get(x) / 1000000.0);
+			tot += times.get(x);
+		}
+		System.err.format("  %-16s %8.3f\n", "first instruction",
+			tot / 1000000.0);
+	}
+}
@@ -0,0 +1,138 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+// Limits on guest execution, to stop runaway (or stuck) programs.
+// Each limit is "cmd[,all]", for each command and for all commands of
+// the session (including those from SUBMIT files). 0 = no limit.
+//
+//	<pfx>_limit_cycles	T-states
+//	<pfx>_limit_instrs	instructions
+//	<pfx>_limit_time	wall time, seconds
+//
+// The run loop calls check() whenever 'clock' reaches 'next', so the
+// instruction limit may be overrun by up to CHECK T-states worth.
+// Wall time is watched by a timer, which also calls 'onTime' so that
+// a program waiting for console input can be stopped.
+public class Watchdog {
+	static final long CHECK = 100000;	// T-states between checks
+
+	public long next = Long.MAX_VALUE;	// 'clock' for next check()
+
+	private long[] cycles = new long[2];
+	private long[] instrs = new long[2];
+	private long[] time = new long[2];	// ms
+	private long clk0, ins0, wall0;	// start of command
+	private long clkAll, insAll, wallAll = -1;	// start of session
+	private volatile String why;	// limit exceeded, or null
+	private Runnable onTime;
+	private Timer timer;
+	private TimerTask task;
+
+	public Watchdog(Properties props, String pfx, Runnable onTime) {
+		this.onTime = onTime;
+		getLimit(props, pfx + "_limit_cycles", cycles, 1);
+		getLimit(props, pfx + "_limit_instrs", instrs, 1);
+		getLimit(props, pfx + "_limit_time", time, 1000);
+	}
+
+	private static void getLimit(Properties props, String prop,
+			long[] lim, int scale) {
+		String s = props.getProperty(prop);
+		if (s == null) {
+			return;
+		}
+		String[] ss = s.split(",");
+		try {
+			for (int x = 0; x < ss.length && x < lim.length; ++x) {
+				if (ss[x].trim().length() > 0) {
+					lim[x] = (long)(Double.parseDouble(ss[x].trim()) * scale);
+				}
+			}
+		} catch (Exception ee) {
+			System.err.format("Invalid %s: \"%s\"\n", prop, s);
+		}
+	}
+
+	public boolean enabled() {
+		return cycles[0] > 0 || cycles[1] > 0 ||
+			instrs[0] > 0 || instrs[1] > 0 ||
+			time[0] > 0 || time[1] > 0;
+	}
+
+	// Which limit was exceeded, or null.
+	public String limit() {
+		return why;
+	}
+
+	// Earliest of the limits that are set, relative to 'cmd' and 'all'.
+	private static long deadline(long[] lim, long cmd, long all) {
+		long d = Long.MAX_VALUE;
+		if (lim[0] > 0) {
+			d = cmd + lim[0];
+		}
+		if (lim[1] > 0 && all + lim[1] < d) {
+			d = all + lim[1];
+		}
+		return d;
+	}
+
+	// A command is about to run.
+	public void begin(long clock, long icount) {
+		long now = System.currentTimeMillis();
+		if (wallAll < 0) {
+			clkAll = clock;
+			insAll = icount;
+			wallAll = now;
+		}
+		clk0 = clock;
+		ins0 = icount;
+		wall0 = now;
+		next = Math.min(clock + CHECK, deadline(cycles, clk0, clkAll));
+		long d = deadline(time, wall0, wallAll);
+		if (d == Long.MAX_VALUE) {
+			return;
+		}
+		if (timer == null) {
+			timer = new Timer(true);
+		}
+		if (task != null) {
+			task.cancel();
+		}
+		task = new TimerTask() {
+			public void run() {
+				if (why == null) {
+					why = "time";
+				}
+				onTime.run();
+			}
+		};
+		timer.schedule(task, Math.max(d - now, 0));
+	}
+
+	// Returns true if a limit has been exceeded.
+	public boolean check(long clock, long icount) {
+		if (why != null) {
+			return true;
+		}
+		long c = deadline(cycles, clk0, clkAll);
+		if (clock >= c) {
+			why = "T-state";
+		} else if (icount >= deadline(instrs, ins0, insAll)) {
+			why = "instruction";
+		} else {
+			next = Math.min(clock + CHECK, c);
+			return false;
+		}
+		return true;
+	}
+
+	// Session is over.
+	public void finish() {
+		if (timer != null) {
+			timer.cancel();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import z80core.*;
+
+// Performs an entire Z80 repeated block instruction (LDIR, LDDR, CPIR,
+// CPDR, INIR, INDR, OTIR, OTDR) in one step, rather than one execute()
+// per repetition. Final registers, flags, R, MEMPTR and T-states are
+// the same as z80core.Z80 produces by repeating the instruction.
+// Only for z80core.Z80. The Z180 is not handled: its MMU, wait states,
+// refresh and internal I/O (and DMA) change both the addresses and the
+// timing, and none of that state is visible here. So Z180 configurations
+// still run these instructions one repetition per execute().
+public class Z80BlockOps {
+	static final int SF = 0x80;
+	static final int ZF = 0x40;
+	static final int YF = 0x20;
+	static final int HF = 0x10;
+	static final int XF = 0x08;
+	static final int PF = 0x04;
+	static final int NF = 0x02;
+	static final int CF = 0x01;
+
+	static final int REP_T = 21;	// T-states for a repeating iteration
+	static final int LAST_T = 16;	// T-states for the final iteration
+
+	// Results of the last execute()
+	public int ticks;	// T-states
+	public int count;	// iterations, i.e. instructions executed
+
+	private Z80 cpu;
+	private Computer comp;
+	private byte[] mem;
+	private static final boolean[] parity = new boolean[256];
+	static {
+		for (int x = 0; x < 256; ++x) {
+			parity[x] = (Integer.bitCount(x) & 1) == 0;
+		}
+	}
+
+	public Z80BlockOps(Z80 cpu, Computer comp, byte[] mem) {
+		this.cpu = cpu;
+		this.comp = comp;
+		this.mem = mem;
+	}
+
+	// True if instruction at 'pc' is one we handle.
+	public boolean isBlockOp(int pc) {
+		return mem[pc] == (byte)0xed &&
+			(mem[(pc + 1) & 0xffff] & 0xf4) == 0xb0;
+	}
+
+	// Perform block instruction at PC, returns false if not done
+	// (caller must use execute()).
+	public boolean execute(int pc) {
+		if (!isBlockOp(pc)) {
+			return false;
+		}
+		if (cpu.isIE() && cpu.isINTLine()) {
+			return false;	// let CPU take interrupt first
+		}
+		int op = mem[(pc + 1) & 0xffff] & 0xff;
+		boolean dec = (op & 0x08) != 0;
+		switch (op & 0x03) {
+		case 0:
+			if (!ldxr(pc, dec)) {
+				return false;
+			}
+			break;
+		case 1:
+			cpxr(pc, dec);
+			break;
+		case 2:
+			if (!inxr(pc, dec)) {
+				return false;
+			}
+			break;
+		case 3:
+			otxr(pc, dec);
+			break;
+		}
+		ticks = REP_T * (count - 1) + LAST_T;
+		int r = cpu.getRegR();
+		cpu.setRegR((r & 0x80) | ((r + 2 * count) & 0x7f));
+		cpu.setRegPC((pc + 2) & 0xffff);
+		return true;
+	}
+
+	// True if writing 'n' bytes from 'adr' (up or down) changes
+	// the instruction at 'pc', which must then be re-fetched.
+	private boolean overwrites(int pc, int adr, int n, boolean dec) {
+		int p0 = (pc - adr) & 0xffff;
+		int p1 = (pc + 1 - adr) & 0xffff;
+		if (dec) {
+			p0 = (adr - pc) & 0xffff;
+			p1 = (adr - pc - 1) & 0xffff;
+		}
+		return (p0 < n || p1 < n);
+	}
+
+	// LDIR/LDDR
+	private boolean ldxr(int pc, boolean dec) {
+		int bc = cpu.getRegBC();
+		int n = (bc == 0 ? 0x10000 : bc);
+		int hl = cpu.getRegHL();
+		int de = cpu.getRegDE();
+		int inc = dec ? -1 : 1;
+		if (overwrites(pc, de, n, dec)) {
+			return false;
+		}
+		int v;
+		if (!dec && hl + n <= 0x10000 && de + n <= 0x10000 &&
+				(de <= hl || de >= hl + n)) {
+			// no wrap, no overlap that would replicate data
+			System.arraycopy(mem, hl, mem, de, n);
+			v = mem[(hl + n - 1) & 0xffff] & 0xff;
+			hl = (hl + n) & 0xffff;
+			de = (de + n) & 0xffff;
+		} else if (dec && hl - n >= -1 && de - n >= -1 &&
+				(de >= hl || de <= hl - n)) {
+			System.arraycopy(mem, hl - n + 1, mem, de - n + 1, n);
+			v = mem[(hl - n + 1) & 0xffff] & 0xff;
+			hl = (hl - n) & 0xffff;
+			de = (de - n) & 0xffff;
+		} else {
+			v = 0;
+			for (int x = 0; x < n; ++x) {
+				v = mem[hl] & 0xff;
+				mem[de] = (byte)v;
+				hl = (hl + inc) & 0xffff;
+				de = (de + inc) & 0xffff;
+			}
+		}
+		cpu.setRegHL(hl);
+		cpu.setRegDE(de);
+		cpu.setRegBC(0);
+		count = n;
+		if (n > 1) {
+			cpu.setMemPtr((pc + 1) & 0xffff);
+		}
+		int f = cpu.getFlags() & (SF | ZF | CF);
+		v += cpu.getRegA();
+		f |= (v & XF) | ((v << 4) & YF);
+		cpu.setFlags(f);
+		return true;
+	}
+
+	// CPIR/CPDR
+	private void cpxr(int pc, boolean dec) {
+		int bc = cpu.getRegBC();
+		int hl = cpu.getRegHL();
+		int a = cpu.getRegA();
+		int inc = dec ? -1 : 1;
+		int v, r;
+		int n = 0;
+		do {
+			v = mem[hl] & 0xff;
+			hl = (hl + inc) & 0xffff;
+			bc = (bc - 1) & 0xffff;
+			r = (a - v) & 0xff;
+			++n;
+		} while (bc != 0 && r != 0);
+		cpu.setRegHL(hl);
+		cpu.setRegBC(bc);
+		count = n;
+		int mp = (n > 1 ? pc + 1 : cpu.getMemPtr());
+		cpu.setMemPtr((mp + inc) & 0xffff);
+		int f = (cpu.getFlags() & CF) | NF | (r & SF);
+		if (r == 0) {
+			f |= ZF;
+		}
+		f |= (a ^ v ^ r) & HF;
+		if (bc != 0) {
+			f |= PF;
+		}
+		if ((f & HF) != 0) {
+			--r;
+		}
+		f |= (r & XF) | ((r << 4) & YF);
+		cpu.setFlags(f);
+	}
+
+	// INIR/INDR
+	private boolean inxr(int pc, boolean dec) {
+		int b = cpu.getRegB();
+		int c = cpu.getRegC();
+		int hl = cpu.getRegHL();
+		int inc = dec ? -1 : 1;
+		int n = (b == 0 ? 256 : b);
+		if (overwrites(pc, hl, n, dec)) {
+			return false;
+		}
+		int v = 0;
+		int bc = 0;
+		for (int x = 0; x < n; ++x) {
+			bc = (b << 8) | c;
+			v = comp.inPort(bc) & 0xff;
+			mem[hl] = (byte)v;
+			b = (b - 1) & 0xff;
+			hl = (hl + inc) & 0xffff;
+		}
+		cpu.setRegB(0);
+		cpu.setRegHL(hl);
+		count = n;
+		cpu.setMemPtr((bc + inc) & 0xffff);
+		ioFlags(v, ((c + inc) & 0xff) + v);
+		return true;
+	}
+
+	// OTIR/OTDR
+	private void otxr(int pc, boolean dec) {
+		int b = cpu.getRegB();
+		int c = cpu.getRegC();
+		int hl = cpu.getRegHL();
+		int inc = dec ? -1 : 1;
+		int n = (b == 0 ? 256 : b);
+		int v = 0;
+		int bc = 0;
+		for (int x = 0; x < n; ++x) {
+			v = mem[hl] & 0xff;
+			b = (b - 1) & 0xff;
+			bc = (b << 8) | c;
+			comp.outPort(bc, v);
+			hl = (hl + inc) & 0xffff;
+		}
+		cpu.setRegB(0);
+		cpu.setRegHL(hl);
+		count = n;
+		cpu.setMemPtr((bc + inc) & 0xffff);
+		ioFlags(v, (hl & 0xff) + v);
+	}
+
+	// Flags after final INI/IND/OUTI/OUTD, B is 0.
+	private void ioFlags(int v, int k) {
+		int f = ZF;
+		if ((v & 0x80) != 0) {
+			f |= NF;
+		}
+		if (k > 0xff) {
+			f |= HF | CF;
+		}
+		if (parity[k & 0x07]) {
+			f |= PF;
+		}
+		cpu.setFlags(f);
+	}
+}
@@ -5,17 +5,16 @@ import java.util.Vector;
 import java.util.Map;
 import java.util.HashMap;
 import java.io.*;
-import java.awt.event.*;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.Properties;
 import java.util.Calendar;
+import java.text.SimpleDateFormat;
 
 import z80core.*;
 import z80debug.*;
 
-public class VirtualHdos implements Computer, Memory,
-		ActionListener, Runnable {
+public class VirtualHdos implements Computer, Memory, Runnable {
 	static final int NCHAN = 8;	// HDOS supports -1, 0, .. 5
 
 	static final int EC_OK = 0;	// no error
@@ -79,21 +78,33 @@ public class VirtualHdos implements Computer, Memory,
 	private CPU cpu;
 	private CPUTracer trc;
 	private long clock;
+	private long icount;
 	private long lastScin;
 	private int scin;
+	private int idleWait = 0;	// ms, max time parked in .SCIN (0 = no limit)
 	private byte[] mem;
 	private boolean running;
 	private Vector<String[]> cmds;
 	private Vector<Integer> paths;
 	private Map<Integer, String> errv;
 	private int[] ctlc;
-	private javax.swing.Timer timer;
+	// Time-of-day, HDOS 3.0. Seconds are counted either in wall time,
+	// checked every TOD_CHECK T-states, or in T-states alone (CPU_HZ
+	// per second) which makes runs repeatable.
+	static final int CPU_HZ = 2048000;
+	static final int TOD_CHECK = CPU_HZ / 100;
+	private long todNext = Long.MAX_VALUE;	// 'clock' for next todCheck()
+	private long todWall;	// wall time (ms) of next second, or 0
+	private boolean todCycles;
+	private java.util.Date todStart;
 
 	private HdosOpenFile[] chans;
 	private String[] dirs;
 	private String root;
-	private java.util.concurrent.LinkedBlockingDeque<Integer> fifo;
+	private ByteRing fifo;	// console input
+	private boolean ctlcIn;	// Ctrl-C to be read, ahead of 'fifo'
 	private ConsoleInput console;
+	private ConsoleScript script;	// scripted input, if any
 
 	static final int s_date = 0x20bf;	// (9) "DD-MMM-YY"
 	static final int s_datc = 0x20c8;	// (2) coded date
@@ -142,15 +153,37 @@ public class VirtualHdos implements Computer, Memory,
 	private int vers = 0x20;
 	private int cpuType = 0x80;	// Z80 by default
 	private boolean done = false;
+	private boolean[] traps;
+	private StartupTimer stt;	// until first instruction, if requested
+	private boolean[] dirMake;	// default dir, create on first use
+	private Z80BlockOps blkops;
+	private DelayLoops delays;
 	private boolean debugIRQ = false;
 	private boolean repExit = false; // report exitCode(s)
+	// Execution limits, and what was going on when one was exceeded.
+	static final int LIMIT_EXIT = 2;	// exit status, limit exceeded
+	private Watchdog watch;
+	private long watchNext = Long.MAX_VALUE;	// 'clock' for next check
+	private String limitDump;
+	private boolean exitOnLimit;	// standalone, System.exit() if exceeded
+	private volatile boolean conWait;	// waiting for console input
+	private int lastFunc = -1;
+	private int lastCaller;
 
 	static String home;
 	static String cwd;
 	byte[] secBuf;
 
 	public static void main(String[] argv) {
+		StartupTimer stt = null;
+		if (System.getenv("VHDOSStartup") != null) {
+			stt = new StartupTimer(true);
+		}
 		Properties props = new Properties();
+		// Coalesce console output, flushed only when the
+		// guest waits for input, or exits.
+		System.setOut(new PrintStream(new BufferedOutputStream(
+			new FileOutputStream(FileDescriptor.out), 8192), false));
 		home = System.getProperty("user.home");
 		cwd = System.getProperty("user.dir");
 		File f = new File("./vhdos.rc");
@@ -208,11 +241,45 @@ public class VirtualHdos implements Computer, Memory,
 		if (s != null) {
 			props.setProperty("vhdos_cpu", s);
 		}
+		s = System.getenv("VHDOSIdleWait");
+		if (s != null) {
+			props.setProperty("vhdos_idle_wait", s);
+		}
+		s = System.getenv("VHDOSClock");
+		if (s != null) {
+			props.setProperty("vhdos_clock", s);
+		}
+		s = System.getenv("VHDOSClockStart");
+		if (s != null) {
+			props.setProperty("vhdos_clock_start", s);
+		}
+		s = System.getenv("VHDOSLimitCycles");
+		if (s != null) {
+			props.setProperty("vhdos_limit_cycles", s);
+		}
+		s = System.getenv("VHDOSLimitInstrs");
+		if (s != null) {
+			props.setProperty("vhdos_limit_instrs", s);
+		}
+		s = System.getenv("VHDOSLimitTime");
+		if (s != null) {
+			props.setProperty("vhdos_limit_time", s);
+		}
+		s = System.getenv("VHDOSLimitDump");
+		if (s != null) {
+			props.setProperty("vhdos_limit_dump", s);
+		}
+		s = System.getenv("VHDOSScript");
+		if (s != null) {
+			props.setProperty("vhdos_script", s);
+		}
 		s = System.getenv("HDOSDefault");
 		if (s == null) {
 			s = "sy0";
 		}
-		vhdos = new VirtualHdos(props, argv, s.toLowerCase());
+		if (stt != null) stt.mark("config");
+		vhdos = new VirtualHdos(props, argv, s.toLowerCase(), stt);
+		vhdos.exitOnLimit = true;
 		vhdos.start();
 	}
 
@@ -228,14 +295,25 @@ public class VirtualHdos implements Computer, Memory,
 	}
 
 	public VirtualHdos(Properties props, String[] argv, String defdrv) {
+		this(props, argv, defdrv, null);
+	}
+
+	// 'stt' continues startup timing begun by main(), if any.
+	private VirtualHdos(Properties props, String[] argv, String defdrv,
+			StartupTimer stt) {
 		String s;
 		int x;
+		this.stt = stt;
 		running = false;
 		cmds = new Vector<String[]>();
 		paths = new Vector<Integer>();
 		dirs = new String[devs.length - 1];
 		chans = new HdosOpenFile[NCHAN];
 		mem = new byte[65536];
+		// HDOS entry and ROM/OS areas, where the run loop must intervene.
+		traps = new boolean[65536];
+		Arrays.fill(traps, 0, 0x1800, true);	// includes 'hdosv'
+		Arrays.fill(traps, hdose, traps.length, true);
 		secBuf = new byte[512]; // at least 512...
 		ctlc = new int[3];
 		boolean silent = (props.getProperty("silent") != null);
@@ -247,26 +325,37 @@ public class VirtualHdos implements Computer, Memory,
 				cpuType = 0x00;
 				cpu = new I8080(this);
 				if (t != null) {
-					trc = new I8080Tracer(props, "vhdos", cpu, this, t);
+					trc = newTracer("I8080Tracer", props, t);
 				}
 			} else if (s.matches("[iI]?8085")) {
 				cpuType = 0x40;
 				cpu = new I8085(this);
 				if (t != null) {
-					trc = new I8085Tracer(props, "vhdos", cpu, this, t);
+					trc = newTracer("I8085Tracer", props, t);
 				}
 			} else if (s.matches("[zZ]80")) {
 				cpuType = 0x80;
 				cpu = new Z80(this);
 				if (t != null) {
-					trc = new Z80Tracer(props, "vhdos", cpu, this, t);
+					trc = newTracer("Z80Tracer", props, t);
+				}
+			} else if (s.matches("[fF]ast8080(-check)?")) {
+				cpuType = 0x00;
+				// local interpreter, direct memory access, no tracing
+				if (s.endsWith("-check")) {
+					cpu = new FastI8080Check(this, mem);
+				} else {
+					cpu = new FastI8080(this, mem);
+				}
+				if (t != null) {
+					System.err.format("Tracing not supported with %s\n", s);
 				}
 			} else if (s.matches("[zZ]180")) {
 				cpuType = 0xc0;
 				Z180 z180 = new Z180(this, null, true); // Z80S180
 				cpu = z180;
 				if (t != null) {
-					trc = new Z180Tracer(props, "vhdos", cpu, this, t);
+					trc = newTracer("Z180Tracer", props, t);
 				}
 			}
 		}
@@ -274,7 +363,7 @@ public class VirtualHdos implements Computer, Memory,
 			cpuType = 0x80;
 			cpu = new Z80(this);
 			if (t != null) {
-				trc = new Z80Tracer(props, "vhdos", cpu, this, t);
+				trc = newTracer("Z80Tracer", props, t);
 			}
 		}
 		s = props.getProperty("vhdos_dump");
@@ -285,15 +374,59 @@ public class VirtualHdos implements Computer, Memory,
 				coredump = "vhdos.core";
 			}
 		}
+		watch = new Watchdog(props, "vhdos", new Runnable() {
+			public void run() { limitTimeout(); }
+		});
+		if (!watch.enabled()) {
+			watch = null;
+		}
+		s = props.getProperty("vhdos_limit_dump");
+		if (s != null) {
+			if (s.length() > 0) {
+				limitDump = s;
+			} else {
+				limitDump = "vhdos.core";
+			}
+		}
 		if (!silent) {
 			System.err.format("Using CPU %s\n", cpu.getClass().getName());
 		}
+		if (stt != null) stt.mark("CPU");
+		// (not Z180, see Z80BlockOps)
+		if (cpu instanceof Z80 && trc == null) {
+			blkops = new Z80BlockOps((Z80)cpu, this, mem);
+		}
+		if (trc == null) {
+			delays = new DelayLoops(cpu, mem, traps,
+				!(cpu instanceof I8080 || cpu instanceof I8085 ||
+				cpu instanceof FastI8080));
+		}
 		nosys = (props.getProperty("vhdos_nosys") != null);
 		y2k = (props.getProperty("vhdos_y2k") != null);
 		s = props.getProperty("vhdos_vers");
 		if (s != null) {
 			vers = Integer.decode(s) & 0xff;
 		}
+		s = props.getProperty("vhdos_idle_wait");
+		if (s != null) {
+			idleWait = Integer.decode(s);
+		}
+		s = props.getProperty("vhdos_clock");
+		if (s != null) {
+			if (s.equalsIgnoreCase("cycles")) {
+				todCycles = true;
+			} else if (!s.equalsIgnoreCase("wall")) {
+				System.err.format("Unknown clock \"%s\"\n", s);
+			}
+		}
+		s = props.getProperty("vhdos_clock_start");
+		if (s != null) {
+			try {
+				todStart = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(s);
+			} catch (Exception ee) {
+				System.err.format("Invalid clock start \"%s\"\n", s);
+			}
+		}
 		for (x = 0; x < dirs.length; ++x) {
 			s = String.format("vhdos_drive_%s", devs[x]);
 			s = expandPath(props.getProperty(s));
@@ -316,20 +449,20 @@ public class VirtualHdos implements Computer, Memory,
 			s = home + "/HostFileHdos";
 		}
 		root = s;
+		dirMake = new boolean[dirs.length];
 		for (x = 0; x < dirs.length; ++x) {
 			if (dirs[x] != null) continue;
 			dirs[x] = String.format("%s/%s", root, devs[x]);
-			File f = new File(dirs[x]);
-			if (!f.exists()) {
-				try { f.mkdirs(); } catch (Exception ee) {}
-			}
+			dirMake[x] = true;
 		}
+		if (stt != null) stt.mark("drives");
 		s = System.getenv("VHDOSShow");
 		if (s != null && s.length() == 3) {
 			int dx = hdosDrive(s);
 			if (dx >= 0) {
-				System.out.println(dirs[dx]);
+				System.out.println(getDir(dx));
 			}
+			System.out.flush();
 			System.exit(0);
 		}
 		s = props.getProperty("vhdos_path");
@@ -366,6 +499,7 @@ public class VirtualHdos implements Computer, Memory,
 		// Do H17 init...
 		System.arraycopy(mem, 0x1f5a, mem, 0x2048, 88);
 		Arrays.fill(mem, 0x20a0, 0x20be, (byte)0);
+		if (stt != null) stt.mark("ROM");
 		setJMP(0x201f, intvec + 1);
 		setJMP(0x2022, intvec + 2);
 		setJMP(0x2025, intvec + 3);
@@ -429,9 +563,46 @@ public class VirtualHdos implements Computer, Memory,
 		}
 		mem[eiret] = (byte)0xfb;
 		mem[eiret + 1] = (byte)0xc9;
-		fifo = new java.util.concurrent.LinkedBlockingDeque<Integer>();
+		fifo = new ByteRing(4096);
+		s = expandPath(props.getProperty("vhdos_script"));
+		if (s != null) {
+			try {
+				// read() is called by ConsoleInput, may wait.
+				script = new ConsoleScript(new File(s), System.in, true);
+				System.setOut(new PrintStream(script.watch(System.out), false));
+			} catch (Exception ee) {
+				System.err.format("Cannot use script %s: %s\n",
+					s, ee.getMessage());
+			}
+		}
 		console = new ConsoleInput();
 		cmds.add(argv);
+		if (stt != null) stt.mark("setup");
+	}
+
+	// Tracer classes are only loaded when tracing.
+	private CPUTracer newTracer(String cls, Properties props, String t) {
+		try {
+			return (CPUTracer)Class.forName("z80debug." + cls).
+				getConstructor(Properties.class, String.class,
+					CPU.class, Memory.class, String.class).
+				newInstance(props, "vhdos", cpu, this, t);
+		} catch (Exception ee) {
+			System.err.format("Cannot create %s: %s\n", cls, ee);
+			return null;
+		}
+	}
+
+	// Directory for drive 'dx', default ones are created on first use.
+	private String getDir(int dx) {
+		if (dirMake[dx]) {
+			File f = new File(dirs[dx]);
+			if (!f.exists()) {
+				try { f.mkdirs(); } catch (Exception ee) {}
+			}
+			dirMake[dx] = false;
+		}
+		return dirs[dx];
 	}
 
 	private void setupPATH(int buf) {
@@ -444,6 +615,9 @@ public class VirtualHdos implements Computer, Memory,
 
 	private void setupTOD() {
 		Calendar cal = Calendar.getInstance();
+		if (todStart != null) {
+			cal.setTime(todStart);
+		}
 		int yr = cal.get(Calendar.YEAR);
 		int mo = cal.get(Calendar.MONTH);
 		int da = cal.get(Calendar.DAY_OF_MONTH);
@@ -462,8 +636,16 @@ public class VirtualHdos implements Computer, Memory,
 		mem[s_time + 1] = (byte)mi;
 		mem[s_time + 2] = (byte)se;
 		mem[s_time + 3] = (byte)0;
-		timer = new javax.swing.Timer(1000, this);
-		timer.start();
+		if (todCycles) {
+			todNext = clock + CPU_HZ;
+		} else {
+			todWall = cal.getTimeInMillis() / 1000 * 1000 + 1000;
+			if (todStart != null) {
+				// keep time from 'todStart', but paced by wall time
+				todWall += System.currentTimeMillis() - cal.getTimeInMillis();
+			}
+			todNext = clock + TOD_CHECK;
+		}
 		mem[s_clktr] = (byte)0x01;
 	}
 
@@ -484,6 +666,26 @@ public class VirtualHdos implements Computer, Memory,
 	}
 
 	// add 1 second...
+	// Called when 'clock' reaches 'todNext', or after waiting for input.
+	private void todCheck() {
+		if (todCycles) {
+			while (clock >= todNext) {
+				updateTOD();
+				todNext += CPU_HZ;
+			}
+			return;
+		}
+		if (todWall == 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		while (now >= todWall) {
+			updateTOD();
+			todWall += 1000;
+		}
+		todNext = clock + TOD_CHECK;
+	}
+
 	private void updateTOD() {
 		int n = bcdIncr60(mem[s_time + 2] & 0xff);
 		mem[s_time + 2] = (byte)n;
@@ -895,7 +1097,7 @@ public class VirtualHdos implements Computer, Memory,
 			System.out.format("?\n");
 			return;
 		}
-		File dir = new File(dirs[dx]);
+		File dir = new File(getDir(dx));
 		HdosDirectoryFile of = new HdosDirectoryFile(dir, 042,
 						nosys, y2k, vers >= 0x30);
 		if (!of.open()) return;
@@ -993,21 +1195,33 @@ public class VirtualHdos implements Computer, Memory,
 		cpu.setRegPC(eiret);
 	}
 
+	// Console output is buffered (see main()), and only flushed
+	// when the program waits for input, or exits.
 	private boolean constat() {
-		return fifo.size() > 0;
+		if (ctlcIn || !fifo.isEmpty()) {
+			return true;
+		}
+		System.out.flush();
+		return false;
 	}
 
 	private int conin() {
 		int a = 0;
-		try {
+		if (ctlcIn) {
+			ctlcIn = false;
+			return 0x03;
+		}
+		System.out.flush();
+		if (conBlock()) try {
 			a = fifo.take();
 		} catch (Exception ee) {}
+		conWait = false;
+		limitWait();
 		return a;
 	}
 
 	private void conout(int e) {
 		System.out.append((char)e);
-		System.out.flush();
 	}
 
 	private void doPRINT() {
@@ -1017,7 +1231,6 @@ public class VirtualHdos implements Computer, Memory,
 			c = mem[hl++] & 0xff;
 			System.out.append((char)(c & 0x7f));
 		} while ((c & 0x80) == 0);
-		System.out.flush();
 		cpu.setRegHL(hl);
 	}
 
@@ -1097,7 +1310,7 @@ public class VirtualHdos implements Computer, Memory,
 		if (fn.indexOf('.') < 0) {
 			fn += ".abs";
 		}
-		return new File(dirs[dx], fn);
+		return new File(getDir(dx), fn);
 	}
 
 	private void hexDump(String tag, int adr, int len) {
@@ -1169,7 +1382,7 @@ public class VirtualHdos implements Computer, Memory,
 				fn += Character.toLowerCase((char)c);
 			}
 		}
-		return new File(dirs[dx], fn);
+		return new File(getDir(dx), fn);
 	}
 
 	// dx < 0 for TT0 table (grt=0)
@@ -1553,19 +1766,82 @@ public class VirtualHdos implements Computer, Memory,
 		}
 	}
 
+	// A program that keeps calling .SCIN, with little else in between,
+	// is waiting for input. After IDLE_POLLS such calls, park until input
+	// (or Ctrl-C) arrives, as .SCIN always did (by blocking in conin()).
+	// Only if 'idleWait' is set, give up after that long and return
+	// "no character". A wall-time TOD catches up afterwards, a T-state
+	// TOD stands still meanwhile.
+	static final int IDLE_POLLS = 100;
+	static final int IDLE_GAP = 1000;	// T-states between .SCIN calls
+
 	private void doSCIN() {
-		if (clock - lastScin > 30) scin = 0;
-		if (++scin > 100 || constat()) {
-			int c = conin(); // may sleep
+		if (!constat()) {
+			if (clock - lastScin > IDLE_GAP) scin = 0;
+			lastScin = clock;
+			if (++scin > IDLE_POLLS) {
+				if (conBlock()) {
+					fifo.await(idleWait);
+				}
+				conWait = false;
+				limitWait();
+				todCheck();
+			}
+		}
+		if (constat()) {
+			int c = conin();
 			cpu.setRegA(c);
 			cpu.setCarryFlag(c == 0);
 			scin = 0;
 		} else {
 			cpu.setCarryFlag(true);
-			lastScin = clock;
 		}
 	}
 
+	// Console input returned, possibly because time ran out.
+	private void limitWait() {
+		if (watch != null && watch.limit() != null) {
+			running = false;
+		}
+	}
+
+	// About to wait for console input. False if the time limit has
+	// already passed, limitTimeout() may have come too soon to stop us.
+	private boolean conBlock() {
+		conWait = true;
+		return (watch == null || watch.limit() == null);
+	}
+
+	// Wall time limit reached (timer thread). If the program is running,
+	// the run loop will notice, but waiting for input must be woken
+	// (through the ring, the CPU thread is not interrupted).
+	private void limitTimeout() {
+		if (conWait) {
+			fifo.wake();
+		}
+	}
+
+	// Called when 'clock' reaches 'watchNext'.
+	private boolean watchCheck() {
+		if (watch.check(clock, icount)) {
+			return true;
+		}
+		watchNext = watch.next;
+		return false;
+	}
+
+	private void limitReport() {
+		System.out.flush();
+		String call = "none";
+		if (lastFunc >= 0) {
+			call = String.format("SCALL %d from %04x", lastFunc, lastCaller);
+		}
+		System.err.format("\nVHDOS %s limit exceeded at PC=%04x, " +
+			"last OS call %s (%d T-states, %d instructions)\n",
+			watch.limit(), cpu.getRegPC(), call, clock, icount);
+		if (limitDump != null) dumpCore(limitDump);
+	}
+
 	private boolean loadERRORs() {
 		if (errv != null) return true;
 		errv = new HashMap<Integer, String>();
@@ -1592,7 +1868,9 @@ public class VirtualHdos implements Computer, Memory,
 			return;
 		}
 		int ret = doPOP();
+		lastCaller = ret - 1;
 		int fnc = mem[ret++] & 0xff;
+		lastFunc = fnc;
 		doPUSH(ret);
 		switch (fnc) {
 		case 0:	// .EXIT
@@ -1777,7 +2055,7 @@ public class VirtualHdos implements Computer, Memory,
 			return 0;
 		}
 		if (pc == 0xffff) { // return to IRQ3
-			fifo.add(0x03);	// send Ctrl-C
+			ctlcIn = true;	// send Ctrl-C
 			return 0;
 		}
 		if ((pc & ~0x0038) == 0) {
@@ -1823,43 +2101,128 @@ public class VirtualHdos implements Computer, Memory,
 
 	//////// Runnable /////////
 	public void run() {
-		String xtra = null;
-		int clk = 0;
-		boolean tracing = false;
+		if (stt != null) stt.mark("thread start");
 		coldStart();
 		while (cmds.size() > 0) {
 			warmStart();
 			running = true;
 			String[] cmd = cmds.remove(0);
 			doCCP(cmd); // parse command... setup execution...
-			while (running) {
-				int PC = cpu.getRegPC();
-				// Doing this early allows triggering off OS calls
-				if (trc != null) {
-					tracing = trc.preTrace(PC, clock);
-					if (tracing) {
-						xtra = traceExtra();
-					}
+			if (stt != null) {
+				stt.mark("image load");
+				stt.report();
+				stt = null;
+			}
+			lastFunc = -1;
+			if (watch != null) {
+				watch.begin(clock, icount);
+				watchNext = watch.next;
+			}
+			// Separate loops, so each one stays small for the JIT.
+			if (trc != null) {
+				runTraced();
+			} else {
+				runFast();
+			}
+			if (watch != null && watch.limit() != null) {
+				limitReport();
+				cmds.clear();	// rest of session is abandoned
+			}
+		}
+		if (coredump != null) dumpCore(coredump);
+		if (watch != null) {
+			watch.finish();
+		}
+		System.out.format("\n");
+		System.out.flush();
+		if (exitOnLimit && watch != null && watch.limit() != null) {
+			System.exit(LIMIT_EXIT);
+		}
+		// System.exit(exitCode);
+	}
+
+	// Run current program until exit, with tracing.
+	private void runTraced() {
+		String xtra = null;
+		int clk = 0;
+		boolean tracing = false;
+		while (running) {
+			if (clock >= todNext) {
+				todCheck();
+			}
+			if (clock >= watchNext && watchCheck()) {
+				break;
+			}
+			int PC = cpu.getRegPC();
+			// Doing this early allows triggering off OS calls
+			tracing = trc.preTrace(PC, clock);
+			if (tracing) {
+				xtra = traceExtra();
+			}
+			if (PC == hdosv) {
+				if (tracing) {
+					trc.postTrace(PC, clk, xtra);
+				}
+				hdosTrap(PC);
+				if (!running) {
+					break;
+				}
+				// TODO: might return to TRAP?
+				// need 'while (PC == hdosv)...'?
+				PC = cpu.getRegPC();
+				tracing = trc.preTrace(PC, clock);
+				if (tracing) {
+					xtra = traceExtra();
+				}
+			}
+			if (traps[PC]) {
+				int e = checkTrap(PC);
+				if (e == 0) {
+					doRET();
+					continue;
+				}
+				if (e == 1) {
+					System.err.format("Crash %04x\n", PC);
 				}
+				running = false;
+				break;
+			}
+			clk = cpu.execute();
+			if (tracing) {
+				trc.postTrace(PC, clk, xtra);
+			}
+			if (vers >= 0x30 && done && !cpu.isIE() &&
+					PC == cpu.getRegPC()) {
+				System.out.format("\n");
+				running = false;
+			}
+			if (clk < 0) clk = -clk;
+			clock += clk;
+			++icount;
+		}
+	}
+
+	// Run current program until exit, no tracing.
+	// Only one probe of 'traps' per instruction, normally.
+	private void runFast() {
+		int clk;
+		while (running) {
+			if (clock >= todNext) {
+				todCheck();
+			}
+			if (clock >= watchNext && watchCheck()) {
+				break;
+			}
+			int PC = cpu.getRegPC();
+			if (traps[PC]) {
 				if (PC == hdosv) {
-					if (tracing) {
-						trc.postTrace(PC, clk, xtra);
-					}
 					hdosTrap(PC);
 					if (!running) {
 						break;
 					}
-					// TODO: might return to TRAP?
-					// need 'while (PC == hdosv)...'?
 					PC = cpu.getRegPC();
-					if (trc != null) {
-						tracing = trc.preTrace(PC, clock);
-						if (tracing) {
-							xtra = traceExtra();
-						}
-					}
 				}
-				if (PC >= hdose || PC < 0x1800) {
+				if (traps[PC]) {
 					int e = checkTrap(PC);
 					if (e == 0) {
 						doRET();
@@ -1871,23 +2234,27 @@ public class VirtualHdos implements Computer, Memory,
 					running = false;
 					break;
 				}
-				clk = cpu.execute();
-				if (tracing) {
-					trc.postTrace(PC, clk, xtra);
-				}
-				if (vers >= 0x30 && done && !cpu.isIE() &&
-						PC == cpu.getRegPC()) {
-					System.out.format("\n");
-					running = false;
-				}
-				if (clk < 0) clk = -clk;
-				clock += clk;
 			}
+			if (blkops != null && blkops.execute(PC)) {
+				clock += blkops.ticks;
+				icount += blkops.count;
+				continue;
+			}
+			if (delays != null && delays.execute(PC)) {
+				clock += delays.ticks;
+				icount += delays.count;
+				continue;
+			}
+			clk = cpu.execute();
+			if (done && vers >= 0x30 && !cpu.isIE() &&
+					PC == cpu.getRegPC()) {
+				System.out.format("\n");
+				running = false;
+			}
+			if (clk < 0) clk = -clk;
+			clock += clk;
+			++icount;
 		}
-		if (timer != null) timer.stop();
-		if (coredump != null) dumpCore(coredump);
-		System.out.format("\n");
-		// System.exit(exitCode);
 	}
 
 	public String dumpDebug() {
@@ -1918,48 +2285,61 @@ public class VirtualHdos implements Computer, Memory,
 	}
 	// public String dumpDebug() { return ""; }
 
-	public void actionPerformed(ActionEvent e) {
-		// only could be timer...
-		updateTOD();
-	}
-
+	// Console input thread, the only producer for 'fifo'.
 	class ConsoleInput implements Runnable {
 		private Thread thread;
-		private BufferedReader lin;
+		private Reader lin;
 		public ConsoleInput() {
-			lin = new BufferedReader(new InputStreamReader(System.in));
+			lin = new InputStreamReader(script != null ?
+					script : System.in);
 			thread = new Thread(this);
 			thread.setDaemon(true); // so we can exit gracefully
 			thread.start();
 		}
-		private void processLine(String s) {
-			int x, c;
-			int n = s.length();
-			for (x = 0; x < n; ++x) {
-				c = s.charAt(x);
-				// Ctrl-C or Ctrl-X = CTLC
-				if (c == 0x03 || c == 0x18) {
-					// Ctrl-C goes immediately
-					cpu.setINTLine(true);
-					fifo.add(0); // wake up if sleeping
-					return; // discard rest
-				}
-				fifo.add(c);
-			}
-			fifo.add((int)'\n');
-		}
 		public void run() {
-			int c;
-			String s;
-			boolean gobble = false;
+			char[] buf = new char[4096];
+			boolean gobble = false;	// discard rest of line
+			boolean cr = false;	// CR seen, ignore LF
+			boolean part = false;	// line not yet ended
+			int n;
 			while (true) {
 				try {
-					s = lin.readLine();
-					if (s == null) break;
-					processLine(s);
+					n = lin.read(buf);
 				} catch (Exception ee) {
 					break;
 				}
+				if (n < 0) break;
+				for (int x = 0; x < n; ++x) {
+					int c = buf[x];
+					if (c == '\n' && cr) {
+						cr = false;
+						continue;
+					}
+					cr = (c == '\r');
+					if (c == '\r' || c == '\n') {
+						if (!gobble) {
+							fifo.put('\n');
+						}
+						gobble = part = false;
+						continue;
+					}
+					if (gobble) {
+						continue;
+					}
+					// Ctrl-C or Ctrl-X = CTLC
+					if (c == 0x03 || c == 0x18) {
+						// Ctrl-C goes immediately
+						cpu.setINTLine(true);
+						fifo.put(0); // wake up if sleeping
+						gobble = true;
+						continue;
+					}
+					fifo.put(c);
+					part = true;
+				}
+			}
+			if (part) {
+				fifo.put('\n');
 			}
 		}
 	}
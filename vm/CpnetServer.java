@@ -13,6 +13,7 @@ public class CpnetServer {
 	public int[] lstCid;
 	public String dir = null;
 	public String[] dirs;
+	private String[] dirProps;	// drive dirs not yet checked, by property
 	public String home;
 	public String cwd;
 
@@ -22,6 +23,7 @@ public class CpnetServer {
 		lsts = new OutputStream[16];
 		lstCid = new int[16];
 		dirs = new String[16];
+		dirProps = new String[16];
 		Arrays.fill(lsts, null);
 		Arrays.fill(lstCid, 0xff);
 
@@ -32,8 +34,11 @@ public class CpnetServer {
 		this.dir = dir;
 
 		home = System.getProperty("user.home");
-		cwd = System.getProperty("user.dir");
 		String s;
+		cwd = props.getProperty(prefix + "_cwd");
+		if (cwd == null) {
+			cwd = System.getProperty("user.dir");
+		}
 		// See if individual drive paths are specified...
 		for (int x = 0; x < 16; ++x) {
 			String p = String.format("%s_drive_%c", prefix, (char)('a' + x));
@@ -41,19 +46,9 @@ public class CpnetServer {
 			if (s == null || s.length() == 0) {
 				continue;
 			}
-			s = expandDir(s);
-			File f = new File(s);
-			if (!f.exists()) {
-				try {
-					f.mkdirs();
-				} catch (Exception ee) {}
-			}
-			if (!f.exists() || !f.isDirectory()) {
-				System.err.format("HostFileBdos invalid path in %s: %s\n",
-					p, s);
-				continue;
-			}
-			dirs[x] = s;
+			// checked (and created) on first use, see getDir()
+			dirs[x] = expandDir(s);
+			dirProps[x] = p;
 		}
 
 		String pfx = prefix;
@@ -84,11 +79,35 @@ public class CpnetServer {
 		}
 	}
 
+	// Configured directory for 'drive', or null if none or not usable.
+	public String getDir(int drive) {
+		String s = dirs[drive];
+		if (s == null || dirProps[drive] == null) {
+			return s;
+		}
+		File f = new File(s);
+		if (!f.exists()) {
+			try {
+				f.mkdirs();
+			} catch (Exception ee) {}
+		}
+		if (!f.exists() || !f.isDirectory()) {
+			System.err.format("HostFileBdos invalid path in %s: %s\n",
+				dirProps[drive], s);
+			dirs[drive] = null;
+		}
+		dirProps[drive] = null;
+		return dirs[drive];
+	}
+
 	public String expandDir(String s) {
 		if (s.startsWith("${PWD}")) {
 			return s.replaceFirst("\\$\\{PWD\\}", cwd);
 		} else if (s.startsWith("${HOME}")) {
 			return s.replaceFirst("\\$\\{HOME\\}", home);
+		} else if (!new File(s).isAbsolute()) {
+			// relative to our (possibly remote) cwd, not the JVM's
+			return cwd + "/" + s;
 		}
 		return s;
 	}
@@ -2,16 +2,20 @@
 
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.Collection;
 import java.util.Date;
 import java.util.TimeZone;
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.Files;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.Properties;
+import java.util.concurrent.*;
 
 public class HostFileBdos implements NetworkServer {
 
@@ -430,6 +434,19 @@ public class HostFileBdos implements NetworkServer {
 		}
 	};
 
+	// Record I/O goes through here, not 'fd' directly. The file position
+	// is kept here, and 'fd' is only read/written at explicit positions
+	// (through its channel), never through its own file pointer, so there
+	// are no seeks. Reads are served from a read-ahead window
+	// (if 'raSize' > 0), which writes through this handle keep current.
+	// A write through any other handle on the file, of any client, or
+	// another open of it, drops the window (see raFiles).
+	// With write-behind ('wbSize' > 0), adjacent writes are collected
+	// and written by a background thread, in order. Anything that
+	// reads the file, or depends on its contents, calls drain() first.
+	// With 'mmap', records are copied to/from a mapping of the file
+	// instead. Only the file as it is gets mapped, writes past its end
+	// go to the file directly, so it always has its real length.
 	class OpenFile {
 		public RandomAccessFile fd;
 		public byte ext;
@@ -437,10 +454,279 @@ public class HostFileBdos implements NetworkServer {
 		public FileLock flk;
 		public Vector<FileLock> rlks;
 		public int drv; // CP/M drive vector of file
+		public long pos;	// file position for next read/write
+		public String path;	// host file
+		private FileChannel ch;	// fd's channel, for positional I/O
+		private byte[] ra;	// read-ahead window
+		private long raPos;	// file position of ra[0]
+		private volatile int raLen;	// valid bytes in 'ra'
+		private volatile int raDrops;	// times forget() cleared 'raLen'
+		private byte[] wb;	// writes not yet handed off
+		private long wbPos;	// file position of wb[0]
+		private int wbLen;
+		private Future<?> wbLast;	// last write handed off
+		private volatile IOException wbErr;	// from a background write
+		private MappedByteBuffer map;
+		private boolean mapWr;	// 'map' is writable
 		public OpenFile() {
 			fd = null;
 			drv = 0;
 		}
+
+		public void init(RandomAccessFile fd, String path) {
+			this.fd = fd;
+			this.path = path;
+			ch = (fd != null ? fd.getChannel() : null);
+			pos = 0;
+			raLen = 0;
+			map = null;
+			if (raSize > 0) {
+				raFiles.remove(this);
+				if (fd != null) {
+					forget(path, this);
+					raFiles.add(this);
+				}
+			}
+		}
+
+		// Read at file position 'p'. Returns bytes read, -1 at EOF.
+		private int chRead(long p, byte[] buf, int off, int len)
+				throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+			while (bb.hasRemaining()) {
+				if (ch.read(bb, p + bb.position() - off) < 0) {
+					break;
+				}
+			}
+			int n = bb.position() - off;
+			return (n > 0 || len == 0 ? n : -1);
+		}
+
+		private void chWrite(long p, byte[] buf, int off, int len)
+				throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+			while (bb.hasRemaining()) {
+				ch.write(bb, p + bb.position() - off);
+			}
+		}
+
+		// Returns bytes read, -1 at EOF.
+		public int read(byte[] buf, int off, int len) throws IOException {
+			int n;
+			if (mmap) {
+				n = mapRead(buf, off, len);
+			} else if (raSize == 0) {
+				drain();
+				n = chRead(pos, buf, off, len);
+			} else {
+				if (ra == null) {
+					ra = new byte[raSize];
+				}
+				int rl = raLen;	// (forget() may clear it any time)
+				if (pos < raPos || pos + len > raPos + rl) {
+					// reading backwards, window ends here
+					long p = pos;
+					if (pos < raPos && rl > 0) {
+						p = Math.max(0, pos + len - ra.length);
+					}
+					drain();
+					int d = raDrops;
+					raPos = p;
+					rl = Math.max(chRead(p, ra, 0, ra.length), 0);
+					// keep it only if not changed while reading
+					raLen = (d == raDrops ? rl : 0);
+				}
+				n = (int)Math.min(len, raPos + rl - pos);
+				if (n <= 0) {
+					return -1;
+				}
+				System.arraycopy(ra, (int)(pos - raPos), buf, off, n);
+			}
+			if (n > 0) {
+				pos += n;
+			}
+			return n;
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			if (mmap) {
+				mapWrite(buf, off, len);
+			} else if (wbSize > 0) {
+				writeBehind(buf, off, len);
+			} else {
+				chWrite(pos, buf, off, len);
+			}
+			// keep read-ahead current, where it overlaps
+			long s = Math.max(pos, raPos);
+			long e = Math.min(pos + len, raPos + raLen);
+			if (s < e) {
+				System.arraycopy(buf, off + (int)(s - pos),
+					ra, (int)(s - raPos), (int)(e - s));
+			}
+			if (raSize > 0) {
+				forget(path, this);
+			}
+			pos += len;
+		}
+
+		// Map the whole file, if 'need' is past the mapping
+		// and the file has grown since.
+		private void mapTo(long need) throws IOException {
+			if (map != null && need <= map.capacity()) {
+				return;
+			}
+			long size = ch.size();
+			if (map != null && size <= map.capacity()) {
+				return;
+			}
+			map = ch.map(mapWr ? FileChannel.MapMode.READ_WRITE :
+				FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		private int mapRead(byte[] buf, int off, int len) throws IOException {
+			mapTo(pos + len);
+			int n = (int)Math.min(len, map.capacity() - pos);
+			if (n <= 0) {
+				return -1;
+			}
+			map.position((int)pos);
+			map.get(buf, off, n);
+			return n;
+		}
+
+		private void mapWrite(byte[] buf, int off, int len) throws IOException {
+			if (!mapWr) {
+				map = null;
+				mapWr = true;
+			}
+			try {
+				mapTo(pos + len);
+				if (pos + len > map.capacity()) {
+					// extends the file, by exactly this much
+					chWrite(pos, buf, off, len);
+					return;
+				}
+			} catch (NonWritableChannelException ee) {
+				map = null;
+				mapWr = false;
+				throw new IOException("read-only file");
+			}
+			map.position((int)pos);
+			map.put(buf, off, len);
+		}
+
+		// Drop the mapping, after writing it out.
+		private void unmap() throws IOException {
+			if (map == null) {
+				return;
+			}
+			if (mapWr) {
+				map.force();
+			}
+			map = null;
+			mapWr = false;
+		}
+
+		private void writeBehind(byte[] buf, int off, int len)
+				throws IOException {
+			checkWb();
+			if (wbLen > 0 && (pos != wbPos + wbLen ||
+					wbLen + len > wb.length)) {
+				handOff();
+			}
+			if (wb == null) {
+				wb = new byte[Math.max(wbSize, len)];
+			}
+			if (wbLen == 0) {
+				wbPos = pos;
+			}
+			System.arraycopy(buf, off, wb, wbLen, len);
+			wbLen += len;
+			if (wbLen >= wb.length) {
+				handOff();
+			}
+		}
+
+		// Give collected writes to the background thread.
+		private void handOff() {
+			if (wbLen == 0) {
+				return;
+			}
+			final ByteBuffer bb = ByteBuffer.wrap(wb, 0, wbLen);
+			final long p = wbPos;
+			final FileChannel ch = this.ch;
+			wb = null;
+			wbLen = 0;
+			wbLast = wbThread().submit(new Runnable() {
+				public void run() {
+					try {
+						long q = p;
+						while (bb.hasRemaining()) {
+							q += ch.write(bb, q);
+						}
+					} catch (IOException ee) {
+						wbErr = ee;
+					}
+				}
+			});
+		}
+
+		private void checkWb() throws IOException {
+			IOException ee = wbErr;
+			if (ee != null) {
+				wbErr = null;
+				throw ee;
+			}
+		}
+
+		// Wait until all writes have reached the file.
+		public void drain() throws IOException {
+			if (mmap) {
+				unmap();
+				return;
+			}
+			handOff();
+			if (wbLast != null) {
+				try {
+					wbLast.get();
+				} catch (Exception ee) {}
+				wbLast = null;
+			}
+			checkWb();
+		}
+
+		public long length() throws IOException {
+			if (!mmap) {
+				drain();	// (mapped files always have their length)
+			}
+			return fd.length();
+		}
+
+		public void setLength(long len) throws IOException {
+			drain();
+			raLen = 0;
+			fd.setLength(len);
+			if (raSize > 0) {
+				forget(path, this);
+			}
+		}
+
+		// Commit to disk.
+		public void sync() throws IOException {
+			drain();
+			ch.force(true);
+			fd.getFD().sync();
+		}
+
+		public void close() throws IOException {
+			RandomAccessFile f = fd;
+			try {
+				drain();
+			} finally {
+				init(null, null);
+				f.close();
+			}
+		}
 	};
 
 	interface BdosFunc {
@@ -451,6 +737,10 @@ public class HostFileBdos implements NetworkServer {
 	static final int DEF_BLS = (1 << DEF_BLS_SH);
 	static final int DEF_NBLOCKS = 128;	// keep alloc vec small, disk size 2M
 	static final int DEF_NFILE = 32; // Probably never need even 8.
+	static final int WB_QUEUE = 16;	// writes queued for background
+	// Open files with read-ahead, of all clients, so a change through
+	// one can drop what the others read ahead.
+	private static final Vector<OpenFile> raFiles = new Vector<OpenFile>();
 	static final byte dirMode = (byte)0b01100001;
 
 	TimeZone tz = TimeZone.getDefault();
@@ -470,6 +760,10 @@ public class HostFileBdos implements NetworkServer {
 	private String fileName;
 	private String pathName;
 	private int nfile;
+	private int raSize;	// read-ahead per open file, bytes
+	private int wbSize;	// write-behind per open file, bytes
+	private boolean mmap;	// record I/O through mapped files
+	private ThreadPoolExecutor wbPool;	// background writes
 
 	// Start of CP/NET payload in buffer...
 	static final int cpnMsg = NetworkServer.DAT;
@@ -486,6 +780,8 @@ public class HostFileBdos implements NetworkServer {
 
 	private boolean debug = false;
 	protected CpnetServer srv;
+	// Host files accessed, only if someone asked (trackFiles()).
+	private Collection<String> touched = null;
 
 	// args: "HostFileBdos" [root-dir [tmp-drv]]
 	public HostFileBdos(Properties props, String prefix, Vector<String> args,
@@ -508,6 +804,16 @@ public class HostFileBdos implements NetworkServer {
 				nfile = n;
 			}
 		}
+		s = props.getProperty(prefix + "_read_ahead");
+		if (s != null) {
+			raSize = Integer.valueOf(s) * 1024;	// KB, 0 = none
+		}
+		s = props.getProperty(prefix + "_write_behind");
+		if (s != null) {
+			wbSize = Integer.valueOf(s) * 1024;	// KB, 0 = none
+		}
+		s = props.getProperty(prefix + "_mmap");
+		mmap = (s != null);
 		openFiles = new OpenFile[nfile];
 		for (int x = 0; x < nfile; ++x) {
 			openFiles[x] = new OpenFile();
@@ -608,6 +914,18 @@ public class HostFileBdos implements NetworkServer {
 		return n;
 	}
 
+	// CP/M 3 multi-sector count: 'cnt' records of READ/WRITE SEQ (20, 21)
+	// or READ/WRITE RAND (33, 34, 40) as one transfer to/from 'dma'.
+	// Result is the error code, and (on error) the number of records
+	// done, as mem[param] and mem[param + 1]. Random record is unchanged.
+	public int bdosMulti(int fnc, byte[] mem, int param, int len,
+			int fcb, int dma, int cnt) {
+		fcbadr = fcb;
+		dmaadr = dma;
+		boolean wr = (fnc != 20 && fnc != 33);
+		return multiIO(mem, param, cnt, fnc <= 21, wr);
+	}
+
 	// msgbuf[0] is CP/NET FMT byte...
 	public byte[] sendMsg(byte[] msgbuf, int len) {
 		int fnc = msgbuf[NetworkServer.FNC] & 0xff;
@@ -732,6 +1050,118 @@ public class HostFileBdos implements NetworkServer {
 	}
 
 
+	// Collect the host paths of files opened, created, renamed,
+	// deleted, or otherwise changed. 'null' stops tracking.
+	public void trackFiles(Collection<String> files) {
+		touched = files;
+	}
+
+	void touch(String path) {
+		if (touched != null) {
+			touched.add(new File(path).getAbsolutePath());
+		}
+	}
+
+	// Current drive/user and drive vectors, for VirtualCpm snapshots.
+	// Open files are not included, see openCount().
+	public void saveState(DataOutputStream os) throws IOException {
+		os.writeInt(curDsk);
+		os.writeInt(curUsr);
+		os.writeInt(curLogVec);
+		os.writeInt(curROVec);
+		os.writeInt(curCompat);
+	}
+
+	// Read what saveState() wrote, for setState(), changing nothing yet.
+	public int[] readState(DataInputStream is) throws IOException {
+		int[] st = new int[5];
+		for (int x = 0; x < st.length; ++x) {
+			st[x] = is.readInt();
+		}
+		if (st[0] < -1 || st[0] > 15 || st[1] < 0 || st[1] > 31) {
+			throw new IOException("invalid state");
+		}
+		return st;
+	}
+
+	public void setState(int[] st) {
+		curDsk = st[0];
+		curUsr = st[1];
+		curLogVec = st[2];
+		curROVec = st[3];
+		curCompat = st[4];
+	}
+
+	public int openCount() {
+		int n = 0;
+		for (int x = 0; x < nfile; ++x) {
+			if (openFiles[x].fd != null) {
+				++n;
+			}
+		}
+		return n;
+	}
+
+	// One thread does all background writes, so they stay in order.
+	// It exits when idle. Writers wait if it falls too far behind.
+	private ExecutorService wbThread() {
+		if (wbPool == null) {
+			wbPool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(WB_QUEUE),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "write-behind");
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r,
+							ThreadPoolExecutor tp) {
+						try {
+							tp.getQueue().put(r);
+						} catch (Exception ee) {}
+					}
+				});
+			wbPool.allowCoreThreadTimeOut(true);
+		}
+		return wbPool;
+	}
+
+	// Before looking at files by name: write-behind data must be in them.
+	// (Mapped files are always current, drain() would only unmap them.)
+	private void drainWb() {
+		if (wbSize > 0) {
+			drain();
+		}
+	}
+
+	// Drop read-ahead of every open file on 'path', except 'of'.
+	static void forget(String path, OpenFile of) {
+		synchronized (raFiles) {
+			for (OpenFile f : raFiles) {
+				if (f != of && f.path.equals(path)) {
+					f.raLen = 0;
+					++f.raDrops;
+				}
+			}
+		}
+	}
+
+	// All writes to open files have reached the files.
+	// Called before anything else reads or changes them.
+	public void drain() {
+		for (int x = 0; x < nfile; ++x) {
+			if (openFiles[x].fd != null) {
+				try {
+					openFiles[x].drain();
+				} catch (Exception ee) {
+					System.err.format("Write error: %s\n", ee.getMessage());
+				}
+			}
+		}
+	}
+
 	public void shutdown() {
 		closeAll(0xffff);
 		srv.shutdown(clientId);
@@ -819,8 +1249,9 @@ public class HostFileBdos implements NetworkServer {
 
 	String cpmDrive(int drive) {
 		drive &= 0x0f;
-		if (srv.dirs[drive] != null) { // must also exist...
-			return srv.dirs[drive];
+		String d = srv.getDir(drive);
+		if (d != null) { // must also exist...
+			return d;
 		}
 		File p = new File(String.format("%s/%c", srv.dir, (char)(drive + 'a')));
 		if (!p.exists()) {
@@ -1196,9 +1627,7 @@ public class HostFileBdos implements NetworkServer {
 		long r = fcb.rr;
 		// TODO: update fcb.ext
 		r *= 128;
-		try {
-			of.fd.seek(r);
-		} catch (Exception ee) {}
+		of.pos = r;
 		fcb.s1 = fcb.cr;
 		of.ext = fcb.ext;
 		of.cr = fcb.cr;
@@ -1232,7 +1661,7 @@ public class HostFileBdos implements NetworkServer {
 	}
 
 	void putFileFcb(cpmFcb fcb, int ix, RandomAccessFile fd, byte drv, FileLock flk) {
-		openFiles[ix].fd = fd;
+		openFiles[ix].init(fd, fd != null ? pathName : null);
 		openFiles[ix].flk = flk;
 		if (fd == null) {
 			openFiles[ix].drv = 0;
@@ -1255,9 +1684,8 @@ public class HostFileBdos implements NetworkServer {
 		for (x = 0; x < nfile; ++x) {
 			if (openFiles[x].fd != null && (openFiles[x].drv & vec) != 0) {
 				try {
-					openFiles[x].fd.close();
+					openFiles[x].close();
 				} catch (Exception ee) {}
-				openFiles[x].fd = null;
 				++n;
 			}
 		}
@@ -1292,17 +1720,18 @@ public class HostFileBdos implements NetworkServer {
 		if (x < 0) {
 			return -1;
 		}
-		RandomAccessFile fd = openFiles[x].fd;
-		if (fd == null) {
+		OpenFile of = openFiles[x];
+		if (of.fd == null) {
 			return -1; // or "return x"?
 		}
-		putFileFcb(fcb, x, (RandomAccessFile)null, (byte)0, (FileLock)null);
+		int rc = x;
 		try {
-			fd.close();
-			return x;
+			of.close();
 		} catch (Exception ee) {
-			return -1;
+			rc = -1;
 		}
+		putFileFcb(fcb, x, (RandomAccessFile)null, (byte)0, (FileLock)null);
+		return rc;
 	}
 
 	// Returns CP/M File Id, or -1 on error (<0).
@@ -1322,6 +1751,7 @@ public class HostFileBdos implements NetworkServer {
 		d = fcb.getDrv();
 		curLogVec |= (1 << d);	// drive must be valid
 		pathName = cpmPath(d, u, fileName);
+		drainWb();	// in case open via another FCB
 		File fi = new File(pathName);
 		//System.err.format("Opening %s\n", pathName);
 		String flags = "rw";
@@ -1368,6 +1798,7 @@ public class HostFileBdos implements NetworkServer {
 			fcb.safe = true;
 		}
 		putFileFcb(fcb, x, fd, d, flk);
+		touch(pathName);
 		if (usr0) {
 			fcb.SET_USR0();
 		}
@@ -1427,6 +1858,7 @@ public class HostFileBdos implements NetworkServer {
 			fcb.safe = true;
 		}
 		putFileFcb(fcb, x, fd, d, flk);
+		touch(pathName);
 		fcb.ext = 0;
 		fcb.rc = 0;
 		fcb.s2 = (byte)0x80;	// flag to update on close
@@ -1571,7 +2003,7 @@ public class HostFileBdos implements NetworkServer {
 			ln += fcb.ext * 128;
 			ln *= 128;
 			try {
-				of.fd.setLength(ln);
+				of.setLength(ln);
 			} catch (Exception ee) {
 				System.err.format("SUBMIT truncate %d\n", ln);
 			}
@@ -1580,8 +2012,7 @@ public class HostFileBdos implements NetworkServer {
 		if (partial) {
 			//System.err.format("Partial close\n");
 			try {
-				of.fd.getChannel().force(true);
-				of.fd.getFD().sync();
+				of.sync();
 				// TODO: will this file ever be closed?
 				// could avoid this if we knew no locks were acquired...
 				if (of.flk != null) {
@@ -1657,6 +2088,7 @@ public class HostFileBdos implements NetworkServer {
 			fcb.name = "???????????";
 			fcb.ext = (byte)'?';
 		}
+		drainWb();	// sizes of files still being written
 		String f = startSearch(fcb, curSearch, u);
 		curLogVec |= (1 << curSearch.drv);
 		if (f == null) {
@@ -1732,6 +2164,7 @@ public class HostFileBdos implements NetworkServer {
 			++rc;
 			try {
 				File fi = new File(cpmPathFound(era.find));
+				touch(fi.getPath());
 				fi.delete();
 			} catch (Exception ee) {}
 			name = doSearch(era);
@@ -1746,10 +2179,7 @@ public class HostFileBdos implements NetworkServer {
 	}
 
 	private void traceFcb(String op, cpmFcb fcb, OpenFile of) {
-		long p = -1;
-		try {
-			p = of.fd.getFilePointer();
-		} catch (Exception ee) {}
+		long p = of.pos;
 		System.err.format("%s \"%s\" %02x %02x : %02x %02x %d\n",
 			op, fcb.name, fcb.ext, fcb.cr, of.ext, of.cr, p);
 	}
@@ -1771,9 +2201,9 @@ public class HostFileBdos implements NetworkServer {
 				long ln = fcb.cr & 0xff;
 				ln += fcb.ext * 128;
 				ln *= 128;
-				of.fd.seek(ln);
+				of.pos = ln;
 			}
-			rc = of.fd.read(msgbuf, dmaadr, 128);
+			rc = of.read(msgbuf, dmaadr, 128);
 			if (rc < 0) {
 				rc = 0;
 			}
@@ -1829,9 +2259,9 @@ public class HostFileBdos implements NetworkServer {
 				long ln = fcb.cr & 0xff;
 				ln += fcb.ext * 128;
 				ln *= 128;
-				of.fd.seek(ln);
+				of.pos = ln;
 			}
-			of.fd.write(msgbuf, dmaadr, 128);
+			of.write(msgbuf, dmaadr, 128);
 			rc = 128;
 		} catch (Exception ee) {
 			rc = -1;
@@ -1902,6 +2332,8 @@ public class HostFileBdos implements NetworkServer {
 		fcb = new cpmFcb(msgbuf, fcbadr + 16);
 		fileName = getFileName(fcb);
 		newn = cpmPath(d, u, fileName);
+		touch(pathName);
+		touch(newn);
 		try {
 			fi.renameTo(new File(newn));
 		} catch (Exception ee) {
@@ -1925,7 +2357,7 @@ public class HostFileBdos implements NetworkServer {
 		if (dmaadr >= 0) {
 			int rc = 0;
 			try {
-				rc = of.fd.read(msgbuf, dmaadr, 128);
+				rc = of.read(msgbuf, dmaadr, 128);
 				if (rc < 0) {
 					rc = 0;
 				}
@@ -1967,7 +2399,7 @@ public class HostFileBdos implements NetworkServer {
 		seekFile(fcb, of);
 		int rc = 0;
 		try {
-			of.fd.write(msgbuf, dmaadr, 128);
+			of.write(msgbuf, dmaadr, 128);
 			rc = 128;
 		} catch (Exception ee) {
 			rc = -1;
@@ -1986,6 +2418,115 @@ public class HostFileBdos implements NetworkServer {
 		return 37;
 	}
 
+	// Same FCB handling as 'cnt' calls of readSeq/writeSeq/readRand/writeRand,
+	// but with only one read/write of the file.
+	private int multiIO(byte[] msgbuf, int start, int cnt,
+			boolean seq, boolean wr) {
+		cpmFcb fcb = new cpmFcb(msgbuf, fcbadr);
+		msgbuf[start] = (byte)0;
+		msgbuf[start + 1] = (byte)0;
+		OpenFile of = (wr ? getFileWrFcb(fcb) : getFileFcb(fcb));
+		if (of == null) {
+			msgbuf[start] = (byte)9;
+			return 2;
+		}
+		if (!seq) {
+			seekFile(fcb, of);
+		} else if ((fcb.ext == 0 && fcb.cr == 0) ||
+				fcb.ext != of.ext ||
+				fcb.cr != of.cr) {
+			long ln = fcb.cr & 0xff;
+			ln += fcb.ext * 128;
+			ln *= 128;
+			of.pos = ln;
+		}
+		int len = cnt * 128;
+		if (dmaadr + len > 0x10000) {
+			// would run off the top of memory
+			msgbuf[start] = (byte)255;
+			return 2;
+		}
+		long pos = of.pos;
+		int rc = 0;
+		boolean err = false;
+		try {
+			if (wr) {
+				of.write(msgbuf, dmaadr, len);
+				rc = len;
+			} else {
+				while (rc < len) {
+					int n = of.read(msgbuf, dmaadr + rc, len - rc);
+					if (n <= 0) {
+						break;
+					}
+					rc += n;
+				}
+			}
+		} catch (Exception ee) {
+			err = true;
+		}
+		if (err && wr) {
+			// find out how far it gets, one record at a time
+			try {
+				while (rc < len) {
+					of.write(msgbuf, dmaadr + rc, 128);
+					rc += 128;
+				}
+			} catch (Exception ee) {}
+		}
+		int n = (rc + 127) / 128;	// records done, last may be partial
+		if (err) {
+			n = rc / 128;	// only whole records were done
+			of.pos = pos + n * 128;
+			msgbuf[start] = (byte)255;
+			msgbuf[start + 1] = (byte)n;
+		} else {
+			if (!wr) {
+				// fill any partial "sector" with Ctrl-Z, in case it's text.
+				Arrays.fill(msgbuf, dmaadr + rc, dmaadr + n * 128, (byte)0x1a);
+			}
+			if (n < cnt) {
+				msgbuf[start] = (byte)1;
+				msgbuf[start + 1] = (byte)n;
+			}
+		}
+		if (!seq) {
+			// Random record is unchanged, ext/cr left at the last
+			// record transferred (or the one that failed), as CP/M 3.
+			long r = fcb.rr + (n > 0 ? n - 1 : 0);
+			of.pos = r * 128;
+			fcb.ext = (byte)((r >> 7) & 0x1f);
+			fcb.cr = (byte)(r & 0x7f);
+			fcb.s1 = fcb.cr;
+			of.ext = fcb.ext;
+			of.cr = fcb.cr;
+			fcb.putIO(msgbuf, fcbadr, true);
+			return 2;
+		}
+		if (n == 0) {
+			return 2;
+		}
+		for (int x = 0; x < n; ++x) {
+			if ((fcb.cr & 0xff) > 127) {
+				fcb.cr = 0;
+				if (wr) {
+					fcb.rc = 0;
+				}
+				++fcb.ext;
+				fcb.ext &= 0x1f;
+			}
+			++fcb.cr;
+			if (wr && (fcb.rc & 0xff) < (fcb.cr & 0xff)) {
+				fcb.rc = fcb.cr;
+			}
+		}
+		fcb.s1 = fcb.cr;
+		of.ext = fcb.ext;
+		of.cr = fcb.cr;
+		fcb.putIO(msgbuf, fcbadr, false);
+		return 2;
+	}
+
 	private int setRandRec(byte[] msgbuf, int start, int len) {
 		//byte u = msgbuf[start] & 0x1f;
 		cpmFcb fcb = new cpmFcb(msgbuf, fcbadr);
@@ -1995,10 +2536,7 @@ public class HostFileBdos implements NetworkServer {
 			msgbuf[start] = (byte)9;
 			return 1;
 		}
-		long r = 0;
-		try {
-			r = of.fd.getFilePointer();
-		} catch (Exception ee) {}
+		long r = of.pos;
 		if (r > 0x03ffff * 128) {
 			r = 0x03ffff;
 		} else {
@@ -2014,10 +2552,11 @@ public class HostFileBdos implements NetworkServer {
 		cpmFcb fcb = new cpmFcb(msgbuf, fcbadr);
 		msgbuf[start] = (byte)0;
 		long r = 0;
+		drainWb();	// in case (also) open via another FCB
 		OpenFile of = getFileFcb(fcb);
 		if (of != null) {
 			try {
-				r = of.fd.length();
+				r = of.length();
 			} catch (Exception ee) {}
 		} else {
 			fileName = getFileName(fcb);
@@ -2061,8 +2600,10 @@ public class HostFileBdos implements NetworkServer {
 			return 1;
 		}
 		// pathName should now be set, since file was not open
+		touch(pathName);
 		if (fcb.ATTR_BC()) {
 			// Set byte count, essentially truncate last 128-byte record.
+			drain();	// in case open via another FCB
 			long r = fi.length();
 			if (r > bc) {
 				r = ((r + 127) & ~0x7fL) - 128 + bc;
@@ -2070,6 +2611,7 @@ public class HostFileBdos implements NetworkServer {
 					RandomAccessFile fd = new RandomAccessFile(pathName, "rw");
 					fd.setLength(r);
 					fd.close();
+					forget(pathName, null);
 				} catch (Exception ee) {
 					msgbuf[start] = (byte)0xff;
 					msgbuf[start + 1] = (byte)1; // probably a R/O file, but not an option.
@@ -2139,8 +2681,7 @@ public class HostFileBdos implements NetworkServer {
 		for (x = 0; x < nfile; ++x) {
 			if (openFiles[x].fd != null) {
 				try {
-					openFiles[x].fd.getChannel().force(true);
-					openFiles[x].fd.getFD().sync();
+					openFiles[x].sync();
 				} catch (Exception ee) {}
 			}
 		}
@@ -2173,6 +2714,7 @@ public class HostFileBdos implements NetworkServer {
 			msgbuf[start + 1] = (byte)(!fi.exists() ? 0 : 3);
 			return 2;
 		}
+		drain();	// in case open via another FCB
 		long r = fcb.rr;
 		if (r > fi.length()) {
 			msgbuf[start] = (byte)0xff;
@@ -2183,6 +2725,7 @@ public class HostFileBdos implements NetworkServer {
 			RandomAccessFile fd = new RandomAccessFile(fi, "rw");
 			fd.setLength(r);
 			fd.close();
+			forget(pathName, null);
 		} catch (Exception ee) {
 			msgbuf[start] = (byte)0xff;
 			msgbuf[start + 1] = (byte)0xff;
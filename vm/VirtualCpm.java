@@ -4,10 +4,16 @@ import java.util.Arrays;
 import java.util.Vector;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.Collection;
 import java.io.*;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import z80core.*;
 import z80debug.*;
@@ -68,20 +74,46 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		(byte)0,			// 105 - GET DATE/TIME
 		(byte)0,			// 106 - SET DEF PASSWORD
 	};
-	static String fdelim = " \t\r\000;=<>.:,|[]";
+	static final int LIMIT_EXIT = 2;	// exit status, limit exceeded
+	static final int SNAP_MAGIC = 0x56534e50;	// "VSNP", snapshot file format
+	static final String fdelim = " \t\r\000;=<>.:,|[]";
 
 	private CPU cpu;
 	private CPUTracer trc;
-	private long clock;
+	private StartupTimer stt;	// until first instruction, if requested
+	private Z80BlockOps blkops;
+	private DelayLoops delays;
+	// OS entry points, any address where the run loop must intervene.
+	private boolean[] traps;
+	private File snapFile;	// machine state after program load/init
+	private int snapAt = -1;	// PC at which to save, else after load
+	private File snapCmd;	// program to save, once PC == snapAt
+	private int snapDef;	// default drive and user, as the program starts
+	private long clock;	// only current at OS traps, while running
+	private long icount;
 	private byte[] mem;
 	private boolean running;
 	private boolean stopped;
 	private Semaphore stopWait;
 	private ReentrantLock cpuLock;
 	private Vector<String[]> cmds;
+	private long osCalls;	// for detecting idle polling
+	private long pollCall;
+	private long pollClock;
+	private int idlePolls;
+	// Execution limits, and what was going on when one was exceeded.
+	private Watchdog watch;
+	private String limitDump;
+	private volatile boolean conWait;	// blocked reading console
+	private int lastTrap;
+	private int lastFunc = -1;
+	private int lastCaller;
 
 	private HostFileBdos hfb;
 	private BufferedReader lin;
+	private ByteRing fifo;	// console input, read ahead by ConsoleReader
+	private PrintStream out;	// buffered, see conFlush()
+	private String cwd;
 
 	static final int wbootv = 0x0000;
 	static final int bdosv = 0x0005;
@@ -116,12 +148,15 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 	static final int SCB_TMP = scb + 0x50;
 	static final int SCB_DATE = scb + 0x58; // date,hours,min,sec
 
-	private static VirtualCpm vcpm;
-	private static String coredump = null;
+	// Everything is per-instance, multiple sessions may run concurrently.
+	private String coredump = null;
 
-	public static void main(String[] argv) {
+	// Build configuration from RC file(s) and environment.
+	// 'cwd' is the directory to look for "vcpm.rc" in,
+	// and is passed along for use with relative paths.
+	public static Properties getConfig(Map<String, String> env, String cwd) {
 		Properties props = new Properties();
-		File f = new File("./vcpm.rc");
+		File f = new File(cwd, "vcpm.rc");
 		if (!f.exists()) {
 			f = new File(System.getProperty("user.home") + "/.vcpmrc");
 		}
@@ -134,7 +169,8 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		} else {
 			// TODO: any alternate defaults?
 		}
-		String s = System.getenv("CPMDrives");
+		props.setProperty("vcpm_cwd", cwd);
+		String s = env.get("CPMDrives");
 		if (s != null) {
 			int x = 0;
 			for (String ss : s.split(",")) {
@@ -149,41 +185,135 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		}
 		for (int x = 0; x < 16; ++x) {
 			String v = String.format("CPMDrive_%c", (char)('A' + x));
-			s = System.getenv(v);
+			s = env.get(v);
 			if (s == null || s.length() == 0) {
 				continue;
 			}
 			String p = String.format("vcpm_drive_%c", (char)('a' + x));
 			props.setProperty(p, s.trim());
 		}
-		s = System.getenv("VCPMCoreDump");
+		s = env.get("VCPMCoreDump");
 		if (s != null) {
 			props.setProperty("vcpm_dump", s);
 		}
-		s = System.getenv("VCPMTrace");
+		s = env.get("VCPMTrace");
 		if (s != null) {
 			props.setProperty("vcpm_trace", s);
 		}
-		s = System.getenv("VCPMCPU");
+		s = env.get("VCPMCPU");
 		if (s != null) {
 			props.setProperty("vcpm_cpu", s);
 		}
-		s = System.getenv("CPMDefault");
+		s = env.get("VCPMSnapshot");
+		if (s != null) {
+			props.setProperty("vcpm_snapshot", s);
+		}
+		s = env.get("VCPMSnapshotAt");
+		if (s != null) {
+			props.setProperty("vcpm_snapshot_at", s);
+		}
+		s = env.get("VCPMStartup");
+		if (s != null) {
+			props.setProperty("vcpm_startup", s);
+		}
+		s = env.get("VCPMLimitCycles");
+		if (s != null) {
+			props.setProperty("vcpm_limit_cycles", s);
+		}
+		s = env.get("VCPMLimitInstrs");
+		if (s != null) {
+			props.setProperty("vcpm_limit_instrs", s);
+		}
+		s = env.get("VCPMLimitTime");
+		if (s != null) {
+			props.setProperty("vcpm_limit_time", s);
+		}
+		s = env.get("VCPMLimitDump");
+		if (s != null) {
+			props.setProperty("vcpm_limit_dump", s);
+		}
+		s = env.get("VCPMReadAhead");
+		if (s != null) {
+			props.setProperty("vcpm_read_ahead", s);
+		}
+		s = env.get("VCPMWriteBehind");
+		if (s != null) {
+			props.setProperty("vcpm_write_behind", s);
+		}
+		s = env.get("VCPMMmap");
+		if (s != null) {
+			props.setProperty("vcpm_mmap", s);
+		}
+		s = env.get("VCPMScript");
+		if (s != null) {
+			props.setProperty("vcpm_script", s);
+		}
+		s = env.get("CPMShow");
+		if (s != null) {
+			props.setProperty("vcpm_show", s);
+		}
+		return props;
+	}
+
+	// Default drive/user from environment, in form for chkSetDef().
+	public static String getDefault(Map<String, String> env) {
+		String s = env.get("CPMDefault");
 		if (s == null) {
 			s = "0A:";
 		}
-		vcpm = new VirtualCpm(props, argv, s.toLowerCase());
-		vcpm.start();
+		return s.toLowerCase();
+	}
+
+	public static void main(String[] argv) {
+		Map<String, String> env = System.getenv();
+		StartupTimer stt = null;
+		if (env.get("VCPMStartup") != null) {
+			stt = new StartupTimer(true);
+		}
+		Properties props = getConfig(env, System.getProperty("user.dir"));
+		if (stt != null) stt.mark("config");
+		VirtualCpm vcpm = new VirtualCpm(props, argv, getDefault(env),
+			System.in, System.out, stt);
+		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+		vcpm.run();	// in this thread
+		// same status as the daemon would give
+		System.exit(vcpm.getExitCode());
 	}
 
 	public VirtualCpm(Properties props, String[] argv, String defdrv) {
+		this(props, argv, defdrv, System.in, System.out);
+	}
+
+	// Console is connected to 'in' and 'out', which need not be System.in/out.
+	public VirtualCpm(Properties props, String[] argv, String defdrv,
+			InputStream in, PrintStream out) {
+		this(props, argv, defdrv, in, out, null);
+	}
+
+	// 'stt' continues startup timing begun by the caller, else
+	// (if "vcpm_startup" is set) timing starts here.
+	private VirtualCpm(Properties props, String[] argv, String defdrv,
+			InputStream in, PrintStream out, StartupTimer stt) {
 		String s;
+		this.stt = stt;
+		if (stt == null && props.getProperty("vcpm_startup") != null) {
+			this.stt = new StartupTimer(false);
+		}
+		// Console output is only flushed when the program waits for input,
+		// exits, or (timer) has not done so for a while.
+		this.out = new PrintStream(new BufferedOutputStream(out, 8192), false);
+		cwd = props.getProperty("vcpm_cwd");
+		if (cwd == null) {
+			cwd = System.getProperty("user.dir");
+		}
 		running = false;
 		stopped = true;
 		stopWait = new Semaphore(0);
 		cpuLock = new ReentrantLock();
 		cmds = new Vector<String[]>();
 		mem = new byte[65536];
+		traps = new boolean[65536];
+		Arrays.fill(traps, memtop, traps.length, true);
 		boolean silent = (props.getProperty("silent") != null);
 		String t = props.getProperty("vcpm_trace");
 		s = props.getProperty("vcpm_cpu");
@@ -191,30 +321,40 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			if (s.matches("[iI]?8080")) {
 				cpu = new I8080(this);
 				if (t != null) {
-					trc = new I8080Tracer(props, "vcpm", cpu, this, t);
+					trc = newTracer("I8080Tracer", props, t);
 				}
 			} else if (s.matches("[iI]?8085")) {
 				cpu = new I8085(this);
 				if (t != null) {
-					trc = new I8085Tracer(props, "vcpm", cpu, this, t);
+					trc = newTracer("I8085Tracer", props, t);
 				}
 			} else if (s.matches("[zZ]80")) {
 				cpu = new Z80(this);
 				if (t != null) {
-					trc = new Z80Tracer(props, "vcpm", cpu, this, t);
+					trc = newTracer("Z80Tracer", props, t);
+				}
+			} else if (s.matches("[fF]ast8080(-check)?")) {
+				// local interpreter, direct memory access, no tracing
+				if (s.endsWith("-check")) {
+					cpu = new FastI8080Check(this, mem);
+				} else {
+					cpu = new FastI8080(this, mem);
+				}
+				if (t != null) {
+					System.err.format("Tracing not supported with %s\n", s);
 				}
 			} else if (s.matches("[zZ]180")) {
 				Z180 z180 = new Z180(this, null, true); // Z80S180
 				cpu = z180;
 				if (t != null) {
-					trc = new Z180Tracer(props, "vcpm", cpu, this, t);
+					trc = newTracer("Z180Tracer", props, t);
 				}
 			}
 		}
 		if (cpu == null) {
 			cpu = new Z80(this);
 			if (t != null) {
-				trc = new Z80Tracer(props, "vcpm", cpu, this, t);
+				trc = newTracer("Z80Tracer", props, t);
 			}
 		}
 		s = props.getProperty("vcpm_dump");
@@ -224,15 +364,81 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			} else {
 				coredump = "vcpm.core";
 			}
+			if (!new File(coredump).isAbsolute()) {
+				coredump = cwd + "/" + coredump;
+			}
+		}
+		watch = new Watchdog(props, "vcpm", new Runnable() {
+			public void run() { limitTimeout(); }
+		});
+		if (!watch.enabled()) {
+			watch = null;
+		}
+		s = props.getProperty("vcpm_limit_dump");
+		if (s != null) {
+			if (s.length() > 0) {
+				limitDump = s;
+			} else {
+				limitDump = "vcpm.core";
+			}
+			if (!new File(limitDump).isAbsolute()) {
+				limitDump = cwd + "/" + limitDump;
+			}
 		}
 		if (!silent) {
 			System.err.format("Using CPU %s\n", cpu.getClass().getName());
 		}
-		lin = new BufferedReader(new InputStreamReader(System.in));
+		if (this.stt != null) this.stt.mark("CPU");
+		s = props.getProperty("vcpm_snapshot");
+		if (s != null) {
+			snapFile = new File(s);
+			if (!snapFile.isAbsolute()) {
+				snapFile = new File(cwd, s);
+			}
+			s = props.getProperty("vcpm_snapshot_at");
+			if (s != null) {
+				try {
+					snapAt = Integer.decode(s);
+				} catch (Exception ee) { }
+				if (snapAt < tpa || snapAt >= memtop) {
+					System.err.format("Invalid snapshot address: %s\n", s);
+					snapFile = null;
+				}
+			}
+		}
+		// (not Z180, see Z80BlockOps)
+		if (cpu instanceof Z80 && trc == null) {
+			blkops = new Z80BlockOps((Z80)cpu, this, mem);
+		}
+		if (trc == null) {
+			delays = new DelayLoops(cpu, mem, traps,
+				!(cpu instanceof I8080 || cpu instanceof I8085 ||
+				cpu instanceof FastI8080));
+		}
+		ConsoleReader rdr = ConsoleReader.of(in);
+		fifo = rdr.ring;
+		lin = rdr.lin;
+		s = props.getProperty("vcpm_script");
+		if (s != null) {
+			File f = new File(s);
+			if (!f.isAbsolute()) {
+				f = new File(cwd, s);
+			}
+			try {
+				// read() is called by this (output) thread, can't wait.
+				ConsoleScript script = new ConsoleScript(f, rdr.in, false);
+				lin = new BufferedReader(new InputStreamReader(script));
+				this.out = new PrintStream(script.watch(this.out), false);
+			} catch (Exception ee) {
+				System.err.format("Cannot use script %s: %s\n",
+					f.getAbsolutePath(), ee.getMessage());
+			}
+		}
 		CpnetServer srv = new CpnetServer(props, "vcpm", 'P', (byte)0x00, 1, null);
 		hfb = new HostFileBdos(props, "vcpm", new Vector<String>(), 0xfe, srv);
 		mem[alvbf] = (byte)0b10000000; // COMPAT_PRO - don't lock files
 		hfb.bdosCall(70, mem, alvbf, 1, fcb1, defdma);
+		if (this.stt != null) this.stt.mark("drives");
 		cmds.add(argv);
 		if (!chkSetDef(defdrv)) {
 			// Message already printed...
@@ -273,11 +479,25 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		while (x < 4) {
 			mem[SCB_DSO + x++] = (byte)-1;
 		}
-		s = System.getenv("CPMShow");
+		s = props.getProperty("vcpm_show");
 		if (s != null && s.length() == 1) {
 			s = hfb.cpmDrive((s.charAt(0) - 1) & 0x0f);
-			System.out.println(s);
-			System.exit(0);
+			out.println(s);
+			cmds.clear();	// nothing else to do
+		}
+		if (this.stt != null) this.stt.mark("setup");
+	}
+
+	// Tracer classes are only loaded when tracing.
+	private CPUTracer newTracer(String cls, Properties props, String t) {
+		try {
+			return (CPUTracer)Class.forName("z80debug." + cls).
+				getConstructor(Properties.class, String.class,
+					CPU.class, Memory.class, String.class).
+				newInstance(props, "vcpm", cpu, this, t);
+		} catch (Exception ee) {
+			System.err.format("Cannot create %s: %s\n", cls, ee);
+			return null;
 		}
 	}
 
@@ -394,7 +614,8 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 
 	private void warmBoot() {
 		// we're done? or support SUBMIT? (requires a CCP)
-		System.out.format("\n");
+		out.format("\n");
+		conFlush();
 		running = false;
 	}
 
@@ -621,9 +842,10 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 				// cmds.add(?, s.split("\\s"));
 			}
 			br.close();
+			hfb.touch(path.getAbsolutePath());
 			return true;
 		} catch (Exception ee) {
-			System.out.println(ee.getMessage());
+			out.println(ee.getMessage());
 			return false;
 		}
 	}
@@ -633,9 +855,10 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			InputStream in = new FileInputStream(path);
 			in.read(mem, tpa, memtop - tpa);
 			in.close();
+			hfb.touch(path.getAbsolutePath());
 			return true;
 		} catch (Exception ee) {
-			System.out.println(ee.getMessage());
+			out.println(ee.getMessage());
 			return false;
 		}
 	}
@@ -645,7 +868,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		if (setupFCB(mem, fcb1, argv[1].toLowerCase())) {
 			// if (mem[fcb1 + 1] == '?' && mem[fcb1 + 9] == '?') {
 			//	TODO: prompt "ALL (Y/N)?"
-			System.out.format("ERA %s (Y/N)?", argv[1]);
+			out.format("ERA %s (Y/N)?", argv[1]);
 			String s = getconlin();
 			if (s == null || !s.equalsIgnoreCase("Y")) {
 				return;
@@ -656,7 +879,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		int ent = mem[alvbf] & 0xff;
 		if (ent > 3) { // assume FF
 			// TODO: specific failure?
-			System.out.println("Not erased");
+			out.println("Not erased");
 		}
 	}
 
@@ -694,7 +917,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 
 	private void doREN(String[] argv) {
 		if (argv.length < 2 || argv.length > 3) {
-			System.out.println("REN syntax error");
+			out.println("REN syntax error");
 			return;
 		}
 		int eq = argv[1].indexOf('=');
@@ -702,7 +925,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		File fo;
 		if (eq > 0) {
 			if (argv.length > 2) {
-				System.out.println("REN syntax error");
+				out.println("REN syntax error");
 				return;
 			}
 			String[] f = argv[1].split("=");
@@ -715,23 +938,25 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		// TODO: need to check for same drive?
 		fo = new File(fn.getParent() + "/" + fo.getName());
 		if (fn.exists()) {
-			System.out.println("File exists");
+			out.println("File exists");
 			return;
 		}
 		if (!fo.exists()) {
-			System.out.println("No file");
+			out.println("No file");
 			return;
 		}
+		hfb.touch(fo.getAbsolutePath());
+		hfb.touch(fn.getAbsolutePath());
 		try {
 			fo.renameTo(fn);
 		} catch (Exception ee) {
-			System.out.println(ee.getMessage());
+			out.println(ee.getMessage());
 		}
 	}
 
 	private void doDIR(String[] argv) {
 		if (argv.length > 2) {
-			System.out.println("DIR syntax error");
+			out.println("DIR syntax error");
 			return;
 		}
 		if (argv.length == 1) {
@@ -767,48 +992,49 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			}
 			++cnt;
 			if (col == 0) {
-				System.out.format(d);
+				out.format(d);
 			}
-			System.out.format("%-15s", getFileName(mem, alvbf + 2));
+			out.format("%-15s", getFileName(mem, alvbf + 2));
 			++col;
 			if (col >= 5) {
-				System.out.format("\n");
+				out.format("\n");
 				col = 0;
 			}
 		} while (true);
 		if (col != 0) {
-			System.out.format("\n");
+			out.format("\n");
 		}
 		if (cnt == 0) {
-			System.out.println("No file");
+			out.println("No file");
 		}
 	}
 
 	private void doTYPE(String[] argv) {
 		if (argv.length != 2) {
-			System.out.println("TYPE syntax error");
+			out.println("TYPE syntax error");
 			return;
 		}
 		File f = new File(getFileDrive(argv[1]));
 		if (!f.exists()) {
-			System.out.println("No file" + f.getAbsolutePath());
+			out.println("No file" + f.getAbsolutePath());
 			return;
 		}
 		try {
 			String s;
 			FileInputStream tf = new FileInputStream(f);
+			hfb.touch(f.getAbsolutePath());
 			BufferedReader br = new BufferedReader(new InputStreamReader(tf));
 			while ((s = br.readLine()) != null)   {
-				System.out.println(s);
+				out.println(s);
 			}
 		} catch (Exception ee) {
-			System.out.println(ee.getMessage());
+			out.println(ee.getMessage());
 		}
 	}
 
 	private void doSAVE(String[] argv) {
 		if (argv.length != 3) {
-			System.out.println("SAVE syntax error");
+			out.println("SAVE syntax error");
 			return;
 		}
 		int npg = 0;
@@ -819,9 +1045,10 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 				return;
 			}
 			FileOutputStream fo = new FileOutputStream(f);
+			hfb.touch(f.getAbsolutePath());
 			fo.write(mem, tpa, npg * 256);
 		} catch (Exception ee) {
-			System.out.println(ee.getMessage());
+			out.println(ee.getMessage());
 			return;
 		}
 	}
@@ -895,6 +1122,9 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			return;
 		}
 		File f = new File(argv[0]);
+		if (!f.isAbsolute()) {
+			f = new File(cwd, argv[0]);
+		}
 		if (argv[0].indexOf('/') >= 0 && f.exists()) {
 			ok = loadSUB(f, argv);
 			// nothing to run, yet...
@@ -912,7 +1142,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			cmd += ' ';
 			cmd += argv[x];
 		}
-		System.out.format("%s\n", cmd);
+		out.format("%s\n", cmd);
 		cmd = argv[0].toLowerCase();
 		if (chkSetDef(cmd)) {
 			running = false;
@@ -930,11 +1160,16 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			cmd = cmd.substring(2);
 		}
 		File path = search(d, u, cmd);
+		snapDef = ((mem[SCB_DRV] & 0xff) << 8) | (mem[SCB_USER] & 0xff);
 		if (path.getName().endsWith(".sub")) {
 			ok = loadSUB(path, argv);
 			// nothing to run, yet...
 			running = false; // skip to next command
 			return;
+		} else if (snapFile != null && loadSnapshot(path)) {
+			snapFile = null;	// only for the first program
+			setPage0(argv);	// only the command line differs
+			return;
 		} else {
 			ok = loadCOM(path);
 		}
@@ -947,6 +1182,153 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		cpu.setRegSP(memtop);
 		doPUSH(wboot);
 		cpu.setRegPC(tpa);
+		if (snapFile != null) {
+			if (snapAt < 0) {
+				saveSnapshot(path);
+				snapFile = null;
+			} else {
+				snapCmd = path;
+				traps[snapAt] = true;
+			}
+		}
+	}
+
+	// Save machine state, so that later runs of the same program
+	// may skip loading and initialization (see loadSnapshot()).
+	private void saveSnapshot(File cmd) {
+		if (hfb.openCount() > 0) {
+			System.err.format("Snapshot not saved, program has open files\n");
+			return;
+		}
+		try {
+			// other sessions may be doing the same, don't expose partial files
+			File t = File.createTempFile("vcpm", ".tmp",
+				snapFile.getAbsoluteFile().getParentFile());
+			DataOutputStream os = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(
+				new FileOutputStream(t))));
+			os.writeInt(SNAP_MAGIC);
+			os.writeUTF(cmd.getAbsolutePath());
+			os.writeLong(cmd.length());
+			os.writeLong(cmd.lastModified());
+			os.writeUTF(cpu.getClass().getName());
+			os.writeInt(snapAt);
+			os.writeInt(snapDef);
+			os.write(mem);	// includes SCB
+			int[] regs = getCpuState();
+			os.writeInt(regs.length);
+			for (int r : regs) {
+				os.writeInt(r);
+			}
+			hfb.saveState(os);
+			os.close();
+			if (!t.renameTo(snapFile)) {
+				t.delete();
+			}
+		} catch (Exception ee) {
+			System.err.format("Snapshot %s: %s\n", snapFile, ee.getMessage());
+		}
+	}
+
+	// Restore machine state, if saved for this same program (file),
+	// CPU, save point, and default drive and user. Everything is read
+	// before anything is changed, so machine state is unchanged on failure.
+	private boolean loadSnapshot(File cmd) {
+		if (!snapFile.exists()) {
+			return false;
+		}
+		try {
+			DataInputStream is = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(
+				new FileInputStream(snapFile))));
+			try {
+				if (is.readInt() != SNAP_MAGIC ||
+						!is.readUTF().equals(cmd.getAbsolutePath()) ||
+						is.readLong() != cmd.length() ||
+						is.readLong() != cmd.lastModified() ||
+						!is.readUTF().equals(cpu.getClass().getName()) ||
+						is.readInt() != snapAt ||
+						is.readInt() != snapDef) {
+					return false;
+				}
+				byte[] m = new byte[mem.length];
+				is.readFully(m);
+				int[] regs = new int[is.readInt()];
+				if (regs.length != getCpuState().length) {
+					return false;
+				}
+				for (int x = 0; x < regs.length; ++x) {
+					regs[x] = is.readInt();
+				}
+				int[] fs = hfb.readState(is);
+				System.arraycopy(m, 0, mem, 0, mem.length);
+				setCpuState(regs);
+				hfb.setState(fs);
+			} finally {
+				is.close();
+			}
+		} catch (Exception ee) {
+			return false;
+		}
+		hfb.touch(cmd.getAbsolutePath());
+		return true;
+	}
+
+	private Z80State getZ80State() {
+		if (cpu instanceof Z80) {
+			return ((Z80)cpu).getZ80State();
+		} else if (cpu instanceof Z180) {
+			return ((Z180)cpu).getZ80State();
+		}
+		return null;
+	}
+
+	private int[] getCpuState() {
+		Z80State st = getZ80State();
+		if (st == null) {
+			return new int[]{ cpu.getRegAF(), cpu.getRegBC(),
+				cpu.getRegDE(), cpu.getRegHL(),
+				cpu.getRegSP(), cpu.getRegPC() };
+		}
+		return new int[]{ st.getRegAF(), st.getRegBC(),
+			st.getRegDE(), st.getRegHL(),
+			st.getRegSP(), st.getRegPC(),
+			st.getRegAFx(), st.getRegBCx(),
+			st.getRegDEx(), st.getRegHLx(),
+			st.getRegIX(), st.getRegIY(),
+			st.getRegI(), st.getRegR(), st.getMemPtr(),
+			st.isIFF1() ? 1 : 0, st.isIFF2() ? 1 : 0,
+			st.getIM().ordinal() };
+	}
+
+	private void setCpuState(int[] regs) {
+		cpu.setRegAF(regs[0]);
+		cpu.setRegBC(regs[1]);
+		cpu.setRegDE(regs[2]);
+		cpu.setRegHL(regs[3]);
+		cpu.setRegSP(regs[4]);
+		cpu.setRegPC(regs[5]);
+		Z80State st = getZ80State();
+		if (st == null || regs.length < 18) {
+			return;
+		}
+		st.setRegAFx(regs[6]);
+		st.setRegBCx(regs[7]);
+		st.setRegDEx(regs[8]);
+		st.setRegHLx(regs[9]);
+		st.setRegIX(regs[10]);
+		st.setRegIY(regs[11]);
+		st.setRegI(regs[12]);
+		st.setRegR(regs[13]);
+		st.setMemPtr(regs[14]);
+		st.setIFF1(regs[15] != 0);
+		st.setIFF2(regs[16] != 0);
+		st.setIM(Z80State.IntMode.values()[regs[17]]);
+		if (cpu instanceof Z80) {
+			((Z80)cpu).setZ80State(st);
+		} else {
+			((Z180)cpu).setZ80State(st);
+		}
 	}
 
 	private void biosTrap(int pc) {
@@ -954,23 +1336,69 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		doBIOS(v);
 	}
 
+	static final int CON_FLUSH_MS = 50;
+
+	private void conFlush() {
+		out.flush();
+	}
+
+	// A program that does nothing but poll console status is idle,
+	// after IDLE_POLLS such polls the CPU thread parks until input arrives,
+	// or a little while passes (increasing to IDLE_MAX_MS) after each
+	// further poll that finds no input. The limit is only there so that
+	// a program counting polls (as a timeout) still gets somewhere.
+	static final int IDLE_POLLS = 100;
+	static final int IDLE_MAX_MS = 250;
+	static final int IDLE_GAP = 10000;	// T-states, polls closer than this
+
 	private int constat() {
 		int a = 0;
+		conFlush();
 		try {
 			if (lin.ready()) {
 				a = 255;
+			} else {
+				conIdle();
 			}
 		} catch (Exception ee) {}
+		if (a != 0) {
+			idlePolls = 0;
+		}
 		return a;
 	}
 
+	// Console status found no input, park if this keeps happening
+	// with no other OS calls in between.
+	private void conIdle() throws Exception {
+		if (osCalls != pollCall + 1 || clock - pollClock > IDLE_GAP) {
+			idlePolls = 0;
+		}
+		pollCall = osCalls;
+		pollClock = clock;
+		if (++idlePolls < IDLE_POLLS) {
+			return;
+		}
+		int ms = idlePolls - IDLE_POLLS + 1;
+		if (ms > IDLE_MAX_MS) {
+			ms = IDLE_MAX_MS;
+		}
+		if (conBlock()) {
+			fifo.await(ms);
+		}
+		conWait = false;
+		limitWait();
+	}
+
 	private int conin() {
 		int a = 0;
-		try {
+		conFlush();
+		if (conBlock()) try {
 			a = lin.read();
 			// TODO: how to pass a real ^J/LF?
 			if (a == '\n') a = '\r';
 		} catch (Exception ee) {}
+		conWait = false;
+		limitWait();
 		return a;
 	}
 
@@ -982,16 +1410,18 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			if (ss.length == 1 && ss[0].startsWith("<")) {
 				cmds.remove(0);
 				s = ss[0].substring(1);
-				System.out.format("%s", s);
+				out.format("%s", s);
 				return s;
 			}
 		}
-		try {
+		conFlush();
+		if (conBlock()) try {
 			// TODO: prevent echo of LF?
 			s = lin.readLine();
-			return s;
 		} catch(Exception ee) {}
-		return null;
+		conWait = false;
+		limitWait();
+		return s;
 	}
 
 	private void conlin(int de) {
@@ -1029,8 +1459,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			doRET();
 			break;
 		case 4:	// conout
-			System.out.append((char)cpu.getRegC());
-			System.out.flush();
+			out.append((char)cpu.getRegC());
 			doRET();
 			break;
 		case 17: // conost
@@ -1090,8 +1519,7 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			hl = conin();
 			break;
 		case 2:	// conout
-			System.out.append((char)e);
-			System.out.flush();
+			out.append((char)e);
 			break;
 		case 6:	// dircon
 			if (e == 0xff) {
@@ -1104,20 +1532,18 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 			} else if (e == 0xfd) {
 				hl = conin();
 			} else {
-				System.out.append((char)e);
-				System.out.flush();
+				out.append((char)e);
 			}
 			break;
 		case 9:	// print string
 			e = de;
 			while ((mem[e] & 0xff) != mem[SCB_OUTDLM]) {
-				System.out.append((char)(mem[e] & 0xff));
+				out.append((char)(mem[e] & 0xff));
 				++e;
 				if (e > 0xffff) {
 					break;
 				}
 			}
-			System.out.flush();
 			break;
 		case 10: // conlin
 			conlin(de);
@@ -1136,49 +1562,12 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 		return hl;
 	}
 
-	private int getRR(byte[] mem, int fcb) {
-		int rr = ((mem[fcb + 35] & 0xff) << 16) |
-			((mem[fcb + 34] & 0xff) << 8) |
-			(mem[fcb + 33] & 0xff);
-		return rr;
-	}
-
-	private void putRR(byte[] mem, int fcb, int rr) {
-		mem[fcb + 35] = (byte)(rr >> 16);
-		mem[fcb + 34] = (byte)(rr >> 8);
-		mem[fcb + 33] = (byte)rr;
-	}
-
 	private int mscCall(int fnc, byte[] mem, int param, int len, int fcb, int dma) {
 		int cnt = mem[SCB_MULTCNT] & 0xff;
-		int rsp = 0;
-		int rr = getRR(mem, fcb);
-		while (cnt > 0) {
-			// all these pass USER
-			mem[param] = mem[SCB_USER];
-			rsp = hfb.bdosCall(fnc, mem, param, len, fcb, dma);
-			if (mem[param] != 0) {
-				cnt = (mem[SCB_MULTCNT] & 0xff) - cnt;
-				break;
-			}
-			--cnt;
-			dma += 128;
-			if (fnc >= 33) {
-				putRR(mem, fcb, getRR(mem, fcb) + 1);
-			}
-		}
-		if (fnc >= 33) {
-			rsp = mem[param];
-			putRR(mem, fcb, rr);
-			// TODO: reset file pointer! need to point dma to unused space!
-			// Use "-1" to indicate seek-only (no read).
-			mem[param] = mem[SCB_USER];
-			hfb.bdosCall(33, mem, param, len, fcb, -1);
-			mem[param] = (byte)rsp;
-		}
-		// put 'cnt' into H...
-		mem[param + 1] = (byte)cnt;
-		return 2;
+		// all these pass USER
+		mem[param] = mem[SCB_USER];
+		// error code in A, records done (on error) in H...
+		return hfb.bdosMulti(fnc, mem, param, len, fcb, dma, cnt);
 	}
 
 	// Only called for fnc: 5, 14..25, 27..31, 33..
@@ -1300,9 +1689,8 @@ public class VirtualCpm implements Computer, Memory, Runnable {
 				((mem[de + 1] & 0xff) << 8);
 			int len = (mem[de + 2] & 0xff) |
 				((mem[de + 3] & 0xff) << 8);
-			String out = new String(mem, str, len);
-			System.out.format("%s", out);
-			System.out.flush();
+			String blk = new String(mem, str, len);
+			out.format("%s", blk);
 		} else if (fnc == 110) { // set/get delim
 			if (de == 0xffff) {
 				hl = mem[SCB_OUTDLM];
@@ -1444,6 +1832,15 @@ System.err.format("Unsupported BDOS function %d\n", fnc);
 	}
 
 	private void osTrap(int pc) {
+		++osCalls;
+		if (pc == snapAt) {
+			endSnapshot(true);
+			return;
+		}
+		lastTrap = pc;
+		lastFunc = (pc >= biose ? (pc & 0xff) / 3 : cpu.getRegC());
+		int sp = cpu.getRegSP();
+		lastCaller = (peek8(sp) | (peek8(sp + 1) << 8)) - 3;
 		if (pc >= biose) {
 			biosTrap(pc);
 		} else {
@@ -1451,6 +1848,58 @@ System.err.format("Unsupported BDOS function %d\n", fnc);
 		}
 	}
 
+	// Console input returned, possibly because time ran out.
+	private void limitWait() {
+		if (watch != null && watch.limit() != null) {
+			running = false;
+		}
+	}
+
+	// About to wait for console input. False if the time limit has
+	// already passed, limitTimeout() may have come too soon to stop us.
+	private boolean conBlock() {
+		conWait = true;
+		return (watch == null || watch.limit() == null);
+	}
+
+	// Wall time limit reached (timer thread). If the program is running,
+	// the run loop will notice, but a wait for console input must be
+	// woken. Either way, run() then ends the session as usual. The CPU
+	// thread is never interrupted, that would close the open files.
+	private void limitTimeout() {
+		if (conWait) {
+			fifo.wake();
+		}
+	}
+
+	private void limitReport() {
+		conFlush();
+		String call = "none";
+		if (lastFunc >= 0) {
+			call = String.format("%s %d from %04x",
+				lastTrap >= biose ? "BIOS" : "BDOS",
+				lastFunc, lastCaller & 0xffff);
+		}
+		System.err.format("\nVCP/M %s limit exceeded at PC=%04x, " +
+			"last OS call %s (%d T-states, %d instructions)\n",
+			watch.limit(), cpu.getRegPC(), call, clock, icount);
+		if (limitDump != null) dumpCore(limitDump);
+	}
+
+	// Snapshot save point reached, or program exited before that.
+	private void endSnapshot(boolean save) {
+		if (snapCmd == null) {
+			return;
+		}
+		if (save) {
+			saveSnapshot(snapCmd);
+		}
+		traps[snapAt] = false;
+		snapAt = -1;
+		snapCmd = null;
+		snapFile = null;
+	}
+
 	private void coldStart() {
 		// already done in ctor...
 		//setDrv(0);
@@ -1471,40 +1920,155 @@ System.err.format("Unsupported BDOS function %d\n", fnc);
 
 	//////// Runnable /////////
 	public void run() {
-		long clock = 0;
-		int clk = 0;
-		boolean tracing = false;
+		if (stt != null) stt.mark("thread start");
+		fifo.unwake();
+		Timer flusher = new Timer(true);
+		flusher.schedule(new TimerTask() {
+			public void run() { conFlush(); }
+		}, CON_FLUSH_MS, CON_FLUSH_MS);
 		coldStart();
 		while (cmds.size() > 0) {
 			warmStart();
 			running = true;
 			String[] cmd = cmds.remove(0);
 			doCCP(cmd); // parse command... setup execution...
-			while (running) {
-				int PC = cpu.getRegPC();
-				if (PC >= memtop) {
-					osTrap(PC);
-					if (!running) {
-						break;
-					}
-					PC = cpu.getRegPC();
-				}
-				// TODO: how to trace osTrap...
-				if (trc != null) {
-					tracing = trc.preTrace(PC, clock);
-				}
-				clk = cpu.execute();
-				if (tracing) {
-					trc.postTrace(PC, clk, null);
-				}
-				clock += clk;
+			if (stt != null) {
+				stt.mark("image load");
+				stt.report();
+				stt = null;
+			}
+			lastFunc = -1;
+			if (watch != null) {
+				watch.begin(clock, icount);
+			}
+			// Separate loops, so each one stays small for the JIT.
+			if (trc != null) {
+				runTraced();
+			} else {
+				runFast();
+			}
+			endSnapshot(false);
+			if (watch != null && watch.limit() != null) {
+				limitReport();
+				cmds.clear();	// rest of session is abandoned
 			}
 		}
+		hfb.drain();	// files the program left open
 		if (coredump != null) dumpCore(coredump);
+		flusher.cancel();
+		if (watch != null) {
+			watch.finish();
+		}
+		conFlush();
 		stopped = true;
 		stopWait.release();
 	}
 
+	// Run current program until exit, with tracing.
+	private void runTraced() {
+		long clock = this.clock;
+		long icount = this.icount;
+		int clk = 0;
+		boolean tracing = false;
+		long next = (watch != null ? watch.next : Long.MAX_VALUE);
+		while (running) {
+			if (clock >= next) {
+				if (watch.check(clock, icount)) {
+					break;
+				}
+				next = watch.next;
+			}
+			int PC = cpu.getRegPC();
+			if (traps[PC]) {
+				this.clock = clock;	// for constat()
+				this.icount = icount;
+				osTrap(PC);
+				if (!running) {
+					break;
+				}
+				PC = cpu.getRegPC();
+			}
+			// TODO: how to trace osTrap...
+			tracing = trc.preTrace(PC, clock);
+			clk = cpu.execute();
+			if (tracing) {
+				trc.postTrace(PC, clk, null);
+			}
+			clock += clk;
+			++icount;
+		}
+		this.clock = clock;
+		this.icount = icount;
+	}
+
+	// Run current program until exit, one instruction at a time.
+	private void runFast() {
+		long clock = this.clock;
+		long icount = this.icount;
+		long next = (watch != null ? watch.next : Long.MAX_VALUE);
+		while (running) {
+			if (clock >= next) {
+				if (watch.check(clock, icount)) {
+					break;
+				}
+				next = watch.next;
+			}
+			int PC = cpu.getRegPC();
+			if (traps[PC]) {
+				this.clock = clock;	// for constat()
+				this.icount = icount;
+				osTrap(PC);
+				if (!running) {
+					break;
+				}
+				PC = cpu.getRegPC();
+			}
+			if (blkops != null && blkops.execute(PC)) {
+				clock += blkops.ticks;
+				icount += blkops.count;
+				continue;
+			}
+			if (delays != null && delays.execute(PC)) {
+				clock += delays.ticks;
+				icount += delays.count;
+				continue;
+			}
+			clock += cpu.execute();
+			++icount;
+		}
+		this.clock = clock;
+		this.icount = icount;
+	}
+
+	// Guest instructions executed, valid after run().
+	public long getInstructions() {
+		return icount;
+	}
+
+	// CP/M 3 Program Return Code, as left in the SCB.
+	public int getProgramReturn() {
+		return getWORD(SCB_PGMRET);
+	}
+
+	// Host files used by the session(s), requires trackFiles().
+	public void trackFiles(Collection<String> files) {
+		hfb.trackFiles(files);
+	}
+
+	// Host exit status, from the CP/M 3 Program Return Code.
+	// FF00-FFFF are "unsuccessful", anything else is success.
+	// LIMIT_EXIT if the session was stopped by an execution limit.
+	public int getExitCode() {
+		if (watch != null && watch.limit() != null) {
+			return LIMIT_EXIT;
+		}
+		int rc = getWORD(SCB_PGMRET);
+		if (rc >= 0xff00) {
+			return 1;
+		}
+		return 0;
+	}
+
 	public String dumpDebug() {
 		String ret = "";
 		return ret;
@@ -1532,4 +2096,89 @@ System.err.format("Unsupported BDOS function %d\n", fnc);
 		}
 	}
 	// public String dumpDebug() { return ""; }
+
+	// Console input thread, the only producer for its 'ring'. Reads ahead,
+	// so that conIdle() can park until input arrives. There is one per
+	// input stream, ending at EOF. Sessions given the same stream (e.g.
+	// System.in, through VirtualCpmRunner) share it, and its 'lin', one
+	// at a time, so threads are not left behind and input read ahead by
+	// one session is there for the next.
+	static class ConsoleReader implements Runnable {
+		private static final Map<InputStream, ConsoleReader> readers =
+			new WeakHashMap<InputStream, ConsoleReader>();
+		private InputStream src;	// until EOF
+		public final ByteRing ring = new ByteRing(4096);
+		public final InputStream in = new ConsoleInput(ring);
+		public final BufferedReader lin =
+			new BufferedReader(new InputStreamReader(in));
+
+		private ConsoleReader(InputStream src) {
+			this.src = src;
+		}
+
+		public static synchronized ConsoleReader of(InputStream src) {
+			ConsoleReader r = readers.get(src);
+			if (r == null) {
+				r = new ConsoleReader(src);
+				readers.put(src, r);
+				Thread t = new Thread(r, "vcpm console");
+				t.setDaemon(true);
+				t.start();
+			}
+			return r;
+		}
+
+		public void run() {
+			byte[] buf = new byte[4096];
+			int n;
+			try {
+				while ((n = src.read(buf)) >= 0) {
+					for (int x = 0; x < n; ++x) {
+						ring.put(buf[x]);
+					}
+				}
+			} catch (Exception ee) {}
+			src = null;	// (the map entry may go, 'ring' stays at EOF)
+			ring.close();
+		}
+	}
+
+	// Console input from a ConsoleReader's ring. A read by the CPU
+	// thread ends early if limitTimeout() wakes the ring.
+	static class ConsoleInput extends InputStream {
+		private ByteRing fifo;
+
+		public ConsoleInput(ByteRing fifo) {
+			this.fifo = fifo;
+		}
+
+		public int read() throws IOException {
+			try {
+				return fifo.take();
+			} catch (InterruptedException ee) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		// Blocks for the first byte only.
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int c = read();
+			if (c < 0) {
+				return -1;
+			}
+			b[off] = (byte)c;
+			int n = 1;
+			while (n < len && !fifo.isEmpty()) {
+				b[off + n++] = (byte)read();
+			}
+			return n;
+		}
+
+		public int available() {
+			return (fifo.isEmpty() ? 0 : 1);
+		}
+	}
 }
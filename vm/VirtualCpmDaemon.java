@@ -0,0 +1,359 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Vector;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps a JVM resident and runs VirtualCpm sessions on behalf of
+// a thin client ("vcpmc"), avoiding JVM startup for every command.
+//
+// Only the user running the daemon may use it: a random key is written
+// to ~/.vcpmd/<port> (directory mode 0700), and every connection must
+// start with "auth <key>". Each client uses three connections to the
+// loopback port:
+//
+//	"run" connection, client sends a header (text lines):
+//		auth <key>
+//		run
+//		cwd <dir>
+//		io <token>	(names the "in" and "out" connections)
+//		env <name>=<value>	(repeated)
+//		arg <word>	(repeated, argv[])
+//		<empty line>
+//	after which the daemon sends back one line when the session ends:
+//		<exit-status> [<error message>]
+//
+//	"in" connection, client sends:
+//		auth <key>
+//		in <token>
+//	followed by console input, until EOF.
+//
+//	"out" connection, client sends:
+//		auth <key>
+//		out <token>
+//	and console output is sent back until the session ends.
+//
+// Input and output are separate connections so that the client can
+// simply copy stdin and stdout, and the end of each can be seen.
+public class VirtualCpmDaemon implements Runnable {
+	static final int DEF_PORT = 2180;
+	static final int AUTH_TIMEOUT = 10000;	// ms, to send "auth"
+	static final int CONN_TIMEOUT = 10000;	// ms, for "in"/"out" to connect
+
+	private ServerSocket sock;
+	private Map<String, Socket> conns;	// "in"/"out" connections
+	private ExecutorService sessions;
+	private byte[] key;
+	private boolean debug;
+
+	// args: [port [jobs]]
+	public static void main(String[] argv) {
+		int port = DEF_PORT;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		String s = System.getenv("VCPMPort");
+		if (argv.length > 0) {
+			s = argv[0];
+		}
+		if (s != null) {
+			port = Integer.valueOf(s);
+		}
+		s = System.getenv("VCPMJobs");
+		if (argv.length > 1) {
+			s = argv[1];
+		}
+		if (s != null) {
+			jobs = Integer.valueOf(s);
+		}
+		try {
+			VirtualCpmDaemon vcpmd = new VirtualCpmDaemon(port, jobs,
+				System.getenv("VCPMDebug") != null);
+			vcpmd.run();
+		} catch (Exception ee) {
+			System.err.format("VirtualCpmDaemon: %s\n", ee.getMessage());
+			System.exit(1);
+		}
+	}
+
+	// 'jobs' is the number of sessions that may run at once,
+	// others wait in line.
+	public VirtualCpmDaemon(int port, int jobs, boolean debug) throws IOException {
+		this.debug = debug;
+		conns = new HashMap<String, Socket>();
+		if (jobs < 1) {
+			jobs = 1;
+		}
+		sessions = Executors.newFixedThreadPool(jobs);
+		// Only local clients, this runs commands as our user.
+		sock = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Path kf = makeKey(port);
+		System.err.format("VirtualCpmDaemon listening on port %d, %d jobs, key %s\n",
+			port, jobs, kf);
+	}
+
+	// Key file for 'port', readable only by our user.
+	public static Path keyFile(int port) {
+		return Paths.get(System.getProperty("user.home"), ".vcpmd",
+			Integer.toString(port));
+	}
+
+	private Path makeKey(int port) throws IOException {
+		Path kf = keyFile(port);
+		Path dir = kf.getParent();
+		Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+			PosixFilePermissions.fromString("rwx------")));
+		Files.setPosixFilePermissions(dir,
+			PosixFilePermissions.fromString("rwx------"));
+		byte[] b = new byte[16];
+		new SecureRandom().nextBytes(b);
+		StringBuilder sb = new StringBuilder();
+		for (byte c : b) {
+			sb.append(String.format("%02x", c));
+		}
+		key = sb.toString().getBytes();
+		Files.deleteIfExists(kf);
+		Files.createFile(kf, PosixFilePermissions.asFileAttribute(
+			PosixFilePermissions.fromString("rw-------")));
+		Files.write(kf, (sb.toString() + "\n").getBytes());
+		kf.toFile().deleteOnExit();
+		return kf;
+	}
+
+	//////// Runnable /////////
+	// Accept connections, never returns.
+	public void run() {
+		while (true) {
+			Socket s;
+			try {
+				s = sock.accept();
+			} catch (Exception ee) {
+				ee.printStackTrace();
+				break;
+			}
+			try {
+				accept(s);
+			} catch (Exception ee) {
+				System.err.format("VirtualCpmDaemon: %s\n", ee.getMessage());
+				try { s.close(); } catch (Exception e2) {}
+			}
+		}
+	}
+
+	private void accept(Socket s) throws IOException {
+		s.setTcpNoDelay(true);
+		InputStream is = s.getInputStream();
+		s.setSoTimeout(AUTH_TIMEOUT);
+		String ln = readLine(is);
+		if (ln == null || !ln.startsWith("auth ") ||
+				!MessageDigest.isEqual(key, ln.substring(5).getBytes())) {
+			System.err.format("VirtualCpmDaemon: not authorized\n");
+			s.close();
+			return;
+		}
+		ln = readLine(is);
+		s.setSoTimeout(0);
+		if (ln == null) {
+			s.close();
+		} else if (ln.startsWith("in ") || ln.startsWith("out ")) {
+			synchronized(conns) {
+				conns.put(ln, s);
+				conns.notifyAll();
+			}
+		} else if (ln.equals("run")) {
+			final Session ss = new Session(s, is);
+			sessions.execute(ss);
+		} else {
+			System.err.format("VirtualCpmDaemon: bad request \"%s\"\n", ln);
+			s.close();
+		}
+	}
+
+	// Unbuffered, so that nothing past the header is consumed.
+	private static String readLine(InputStream is) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = is.read()) >= 0 && c != '\n') {
+			sb.append((char)c);
+		}
+		if (c < 0 && sb.length() == 0) {
+			return null;
+		}
+		return sb.toString();
+	}
+
+	// Wait for the client's "in"/"out" connection ('name') to show up.
+	// A client that never connects should not hold a session forever.
+	private Socket getConn(String name)
+			throws InterruptedException, IOException {
+		long end = System.currentTimeMillis() + CONN_TIMEOUT;
+		synchronized(conns) {
+			while (!conns.containsKey(name)) {
+				long t = end - System.currentTimeMillis();
+				if (t <= 0) {
+					throw new SocketTimeoutException(
+						"no \"" + name + "\" connection");
+				}
+				conns.wait(t);
+			}
+			return conns.remove(name);
+		}
+	}
+
+	// Discard whatever connections are pending for a dead session.
+	private void dropConns(String tok) {
+		synchronized(conns) {
+			for (String k : new String[]{ "in " + tok, "out " + tok }) {
+				Socket s = conns.remove(k);
+				if (s != null) {
+					try { s.close(); } catch (Exception ee) {}
+				}
+			}
+		}
+	}
+
+	// Console input, connected on first use.
+	class SessionInput extends InputStream {
+		private String tok;
+		private Socket sock;
+		private InputStream in;
+
+		public SessionInput(String tok) {
+			this.tok = "in " + tok;
+		}
+
+		private InputStream input() throws IOException {
+			if (in != null) {
+				return in;
+			}
+			try {
+				sock = getConn(tok);
+			} catch (InterruptedException ee) {
+				throw new InterruptedIOException();
+			}
+			in = sock.getInputStream();
+			return in;
+		}
+
+		public int read() throws IOException {
+			return input().read();
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return input().read(b, off, len);
+		}
+		public int available() throws IOException {
+			// don't block waiting for connection
+			if (in == null) {
+				synchronized(conns) {
+					if (!conns.containsKey(tok)) {
+						return 0;
+					}
+				}
+			}
+			return input().available();
+		}
+		public void close() throws IOException {
+			if (sock != null) {
+				sock.close();
+			} else {
+				// never used, might still show up later...
+				synchronized(conns) {
+					Socket s = conns.remove(tok);
+					if (s != null) s.close();
+				}
+			}
+		}
+	}
+
+	class Session implements Runnable {
+		private Socket sock;
+		private InputStream is;
+
+		public Session(Socket sock, InputStream is) {
+			this.sock = sock;
+			this.is = is;
+		}
+
+		public void run() {
+			String cwd = null;
+			String tok = null;
+			Map<String, String> env = new HashMap<String, String>();
+			Vector<String> args = new Vector<String>();
+			SessionInput in = null;
+			Socket out = null;
+			int rc = 1;
+			String err = null;
+			try {
+				String ln;
+				while ((ln = readLine(is)) != null && ln.length() > 0) {
+					int x = ln.indexOf(' ');
+					String k = (x < 0 ? ln : ln.substring(0, x));
+					String v = (x < 0 ? "" : ln.substring(x + 1));
+					if (k.equals("cwd")) {
+						cwd = v;
+					} else if (k.equals("io")) {
+						tok = v;
+					} else if (k.equals("env")) {
+						x = v.indexOf('=');
+						if (x > 0) {
+							env.put(v.substring(0, x), v.substring(x + 1));
+						}
+					} else if (k.equals("arg")) {
+						args.add(v);
+					}
+				}
+				if (tok == null) {
+					throw new IOException("no io connections");
+				}
+				out = getConn("out " + tok);
+				in = new SessionInput(tok);
+				if (cwd == null) {
+					cwd = System.getProperty("user.dir");
+				}
+				File d = new File(cwd);
+				if (!d.isDirectory() || !d.canRead() || !d.canExecute()) {
+					throw new IOException("cannot access " + cwd);
+				}
+				if (debug) {
+					System.err.format("Session %s: %s\n", cwd, args);
+				}
+				PrintStream ps = new PrintStream(
+					new BufferedOutputStream(out.getOutputStream()), true);
+				rc = runSession(env, cwd, args.toArray(new String[0]), in, ps);
+				ps.flush();
+			} catch (Exception ee) {
+				err = ee.getMessage();
+				System.err.format("VirtualCpmDaemon: %s\n", err);
+			}
+			try {
+				if (in != null) in.close();
+				if (out != null) out.close();
+			} catch (Exception ee) {}
+			if (tok != null) {
+				dropConns(tok);
+			}
+			try {
+				OutputStream os = sock.getOutputStream();
+				os.write(String.format("%d%s\n", rc,
+					err != null ? " " + err : "").getBytes());
+				os.flush();
+				sock.close();
+			} catch (Exception ee) {}
+		}
+	}
+
+	private int runSession(Map<String, String> env, String cwd, String[] argv,
+			InputStream in, PrintStream out) {
+		java.util.Properties props = VirtualCpm.getConfig(env, cwd);
+		VirtualCpm vcpm = new VirtualCpm(props, argv,
+				VirtualCpm.getDefault(env), in, out);
+		vcpm.run();	// in this thread
+		return vcpm.getExitCode();
+	}
+}
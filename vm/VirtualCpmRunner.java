@@ -0,0 +1,116 @@
+// Copyright 2026 Douglas Miller <durgadas311@gmail.com>
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.LinkedHashSet;
+import java.io.*;
+
+// Runs CP/M commands in-process, for use by build tools and such
+// that would otherwise spawn "java -jar VirtualCpm.jar" and scrape
+// the output. A runner may be configured once and used many times,
+// each run() gets a fresh VirtualCpm so runs do not interfere.
+// Each run() executes on a thread of its own, and returns when done,
+// interrupting the calling thread does not stop it.
+//
+//	VirtualCpmRunner r = new VirtualCpmRunner();
+//	Map<Character, String> drv = new HashMap<Character, String>();
+//	drv.put('a', "/path/to/build");
+//	VirtualCpmRunner.Result res = r.run(new String[]{ "m80", "=prog" },
+//			drv, null, System.out);
+//	if (res.exitCode != 0) ...
+public class VirtualCpmRunner {
+	// Outcome of one run().
+	public static class Result {
+		public int pgmret;	// SCB Program Return Code
+		public int exitCode;	// 0 = success, 1 = program reported error,
+				// 2 = execution limit exceeded
+		public long instructions; // guest instructions executed
+		public Vector<String> files; // host files used, in order of first use
+
+		public String toString() {
+			return String.format("pgmret=%04x exit=%d instrs=%d files=%s",
+				pgmret, exitCode, instructions, files);
+		}
+	}
+
+	private Properties props;
+	private String defdrv;
+
+	// Same configuration as the command line would use,
+	// from "vcpm.rc" (or "~/.vcpmrc") and the environment.
+	public VirtualCpmRunner() {
+		this(VirtualCpm.getConfig(System.getenv(), System.getProperty("user.dir")),
+			VirtualCpm.getDefault(System.getenv()));
+	}
+
+	// Explicit configuration, "vcpm_*" properties as for "vcpm.rc".
+	// 'defdrv' is the default user/drive, e.g. "0a:".
+	public VirtualCpmRunner(Properties props, String defdrv) {
+		this.props = props;
+		this.defdrv = (defdrv == null ? "0a:" : defdrv.toLowerCase());
+	}
+
+	public Properties getProperties() { return props; }
+
+	public Result run(String[] argv, InputStream in, OutputStream out) {
+		return run(argv, null, in, out);
+	}
+
+	// 'drives' maps drive letter to host directory, overriding the
+	// configuration for this run only. 'in' may be null (no console input),
+	// else it is read ahead, until EOF, by a thread that later runs given
+	// the same stream reuse. Runs sharing a stream must not overlap.
+	public Result run(String[] argv, Map<Character, String> drives,
+			InputStream in, OutputStream out) {
+		Properties p = new Properties();
+		p.putAll(props);
+		if (drives != null) {
+			for (Map.Entry<Character, String> e : drives.entrySet()) {
+				char d = Character.toLowerCase(e.getKey());
+				if (d < 'a' || d > 'p') {
+					throw new IllegalArgumentException(
+						String.format("Invalid drive %c:", e.getKey()));
+				}
+				p.setProperty(String.format("vcpm_drive_%c", d),
+						e.getValue());
+			}
+		}
+		if (in == null) {
+			in = new ByteArrayInputStream(new byte[0]);
+		}
+		PrintStream ps;
+		if (out instanceof PrintStream) {
+			ps = (PrintStream)out;
+		} else {
+			ps = new PrintStream(out, true);
+		}
+		LinkedHashSet<String> files = new LinkedHashSet<String>();
+		VirtualCpm vcpm = new VirtualCpm(p, argv, defdrv, in, ps);
+		vcpm.trackFiles(files);
+		// Not in this thread: an interrupt closes the file channels
+		// HostFileBdos uses, losing data. If the caller is interrupted,
+		// the run still completes, and the interrupt is kept for later.
+		Thread t = new Thread(vcpm, "vcpm session");
+		t.start();
+		boolean intr = false;
+		while (true) {
+			try {
+				t.join();
+				break;
+			} catch (InterruptedException ee) {
+				intr = true;
+			}
+		}
+		if (intr) {
+			Thread.currentThread().interrupt();
+		}
+		ps.flush();
+		Result res = new Result();
+		res.pgmret = vcpm.getProgramReturn();
+		res.exitCode = vcpm.getExitCode();
+		res.instructions = vcpm.getInstructions();
+		res.files = new Vector<String>(files);
+		return res;
+	}
+}